@@ -0,0 +1,37 @@
+package com.neotys.ps.aws.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Access to the NeoLoad Web payloads recorded in src/main/resources/fixtures.
+ */
+public final class Fixtures {
+
+	public static final String POINTS = "points.json";
+	public static final String ELEMENT_VALUES = "element-values.json";
+	public static final String TEST_STATISTICS = "test-statistics.json";
+	public static final String TRANSACTIONS = "transactions.json";
+
+	private Fixtures() {
+	}
+
+	public static String load(String name) {
+		try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+			if (in == null) {
+				throw new IllegalArgumentException("Unknown fixture " + name);
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read fixture " + name, e);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.neotys.ps.aws.benchmarks;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.swagger.client.ApiClient;
+import io.swagger.client.JSON;
+import io.swagger.client.model.ElementValues;
+import io.swagger.client.model.PointSeries;
+import io.swagger.client.model.Points;
+import io.swagger.client.model.TestStatistics;
+
+/**
+ * Deserialization of the NeoLoad Web payloads read on each run of the integration action.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonDeserializationBenchmark {
+
+	private JSON json;
+	private String points;
+	private String elementValues;
+	private String testStatistics;
+
+	@Setup
+	public void setup() {
+		json = new ApiClient().getJSON();
+		points = Fixtures.load(Fixtures.POINTS);
+		elementValues = Fixtures.load(Fixtures.ELEMENT_VALUES);
+		testStatistics = Fixtures.load(Fixtures.TEST_STATISTICS);
+	}
+
+	@Benchmark
+	public Points points() {
+		return json.deserialize(points, Points.class);
+	}
+
+	@Benchmark
+	public Points pointsFromReader() {
+		return json.deserialize(new StringReader(points), Points.class);
+	}
+
+	@Benchmark
+	public PointSeries pointSeries() {
+		return json.deserialize(points, PointSeries.class);
+	}
+
+	@Benchmark
+	public ElementValues elementValues() {
+		return json.deserialize(elementValues, ElementValues.class);
+	}
+
+	@Benchmark
+	public TestStatistics testStatistics() {
+		return json.deserialize(testStatistics, TestStatistics.class);
+	}
+}
@@ -0,0 +1,45 @@
+package com.neotys.ps.aws.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.swagger.client.ApiClient;
+
+/**
+ * ApiClient.parseDatetime with the formats returned by NeoLoad Web.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseDatetimeBenchmark {
+
+	@Param({"2017-11-02T14:44:36.831Z", "2017-11-02T14:44:36.831+0100", "2017-11-02T14:44:36+01:00"})
+	public String datetime;
+
+	private ApiClient apiClient;
+
+	@Setup
+	public void setup() {
+		apiClient = new ApiClient();
+	}
+
+	@Benchmark
+	public Date parseDatetime() {
+		return apiClient.parseDatetime(datetime);
+	}
+}
@@ -0,0 +1,87 @@
+package com.neotys.ps.aws.integration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.cloudwatch.AbstractAmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.neotys.ps.aws.benchmarks.Fixtures;
+
+import io.swagger.client.ApiClient;
+import io.swagger.client.JSON;
+import io.swagger.client.model.ElementDefinition;
+import io.swagger.client.model.ElementDefinitions;
+import io.swagger.client.model.ElementValues;
+
+/**
+ * Building and batching the transaction datums of one run of the integration action.
+ * This benchmark lives in the package of the engine to reach its package private publishing path.
+ * CloudWatch is replaced by a client that drops the requests.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatumBuildingBenchmark {
+
+	private MetricDataPublisher publisher;
+	private List<Dimension> baseDimensions;
+	private List<ElementDefinitionCache.Element> transactions;
+	private List<ElementValues> transactionStats;
+
+	@Setup
+	public void setup() {
+		publisher = new MetricDataPublisher(new AbstractAmazonCloudWatch() {
+			@Override
+			public PutMetricDataResult putMetricData(PutMetricDataRequest request) {
+				return new PutMetricDataResult();
+			}
+		}, "NeoLoad");
+
+		JSON json = new ApiClient().getJSON();
+		//The dimensions of the transactions are built once, as in the element cache of a running test
+		ElementDefinitions definitions = json.deserialize(Fixtures.load(Fixtures.TRANSACTIONS), ElementDefinitions.class);
+		transactions = new ArrayList<ElementDefinitionCache.Element>();
+		for (ElementDefinition definition : definitions) {
+			transactions.add(new ElementDefinitionCache.Element(definition));
+		}
+		ElementValues values = json.deserialize(Fixtures.load(Fixtures.ELEMENT_VALUES), ElementValues.class);
+		transactionStats = new ArrayList<ElementValues>();
+		for (int i = 0; i < transactions.size(); i++) {
+			transactionStats.add(values);
+		}
+
+		baseDimensions = new ArrayList<Dimension>();
+		baseDimensions.add(new Dimension().withName("TestId").withValue("6f1a3c2e-9d54-4b1f-a2d0-5c7e8b9f0a12"));
+		baseDimensions.add(new Dimension().withName("Author").withValue("John Doe"));
+		baseDimensions.add(new Dimension().withName("Project").withValue("eCommerce"));
+		baseDimensions.add(new Dimension().withName("Scenario").withValue("Peak load"));
+		baseDimensions.add(new Dimension().withName("Test").withValue("Peak load #42"));
+	}
+
+	@Benchmark
+	public int buildAndFlush() {
+		StringBuilder responseBuilder = new StringBuilder();
+		//No previous values: every transaction is sent, as in the first export of a test
+		TestExporter.addTransactionDatums(publisher, baseDimensions, transactions, transactionStats, Collections.singletonList(TransactionMetric.AVG_DURATION), new HashMap<String, ElementValues>(), responseBuilder);
+		return publisher.flush() + responseBuilder.length();
+	}
+}
@@ -0,0 +1,89 @@
+package com.neotys.ps.aws.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.neotys.ps.aws.benchmarks.Fixtures;
+
+import io.swagger.client.ApiClient;
+import io.swagger.client.model.ElementDefinition;
+import io.swagger.client.model.ElementDefinitions;
+
+/**
+ * Getting the dimensions of every transaction for one run of the integration action:
+ * rebuilt from the definitions at each run, or interned by the element cache of the test.
+ * Run with -prof gc to compare the allocation rates: the interned dimensions do not allocate once built.
+ * This is only the lookup of the dimensions: DatumBuildingBenchmark measures the whole run, where the interning saves
+ * about 10 KB out of 585 KB per run (1.7%), the rest being the copies made by MetricDatum and the formatting of the response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DimensionSetBenchmark {
+
+	private static final String CACHE_KEY = ElementDefinitionCache.key("benchmark", "6f1a3c2e-9d54-4b1f-a2d0-5c7e8b9f0a12", "TRANSACTION");
+
+	private List<Dimension> baseDimensions;
+	private ElementDefinitions definitions;
+	private ElementDefinitionCache cache;
+	private List<ElementDefinitionCache.Element> transactions;
+
+	@Setup
+	public void setup() throws Exception {
+		definitions = new ApiClient().getJSON().deserialize(Fixtures.load(Fixtures.TRANSACTIONS), ElementDefinitions.class);
+
+		cache = ElementDefinitionCache.acquire(CACHE_KEY, "6f1a3c2e-9d54-4b1f-a2d0-5c7e8b9f0a12", "TRANSACTION");
+		cache.refresh(definitions);
+		transactions = cache.getElements(null, ElementDefinitionCache.DEFAULT_REFRESH_EXPORTS);
+
+		baseDimensions = new ArrayList<Dimension>();
+		baseDimensions.add(new Dimension().withName("TestId").withValue("6f1a3c2e-9d54-4b1f-a2d0-5c7e8b9f0a12"));
+		baseDimensions.add(new Dimension().withName("Author").withValue("John Doe"));
+		baseDimensions.add(new Dimension().withName("Project").withValue("eCommerce"));
+		baseDimensions.add(new Dimension().withName("Scenario").withValue("Peak load"));
+		baseDimensions.add(new Dimension().withName("Test").withValue("Peak load #42"));
+	}
+
+	@TearDown
+	public void tearDown() {
+		ElementDefinitionCache.release(CACHE_KEY);
+	}
+
+	@Benchmark
+	public void rebuiltDimensions(Blackhole blackhole) {
+		List<Dimension> dimensions = new ArrayList<Dimension>();
+		for (ElementDefinition definition : definitions) {
+			dimensions.clear();
+			dimensions.addAll(baseDimensions);
+			blackhole.consume(TestExporter.addTransactionDimensions(dimensions, definition));
+			blackhole.consume(dimensions);
+		}
+	}
+
+	@Benchmark
+	public void internedDimensions(Blackhole blackhole) {
+		List<Dimension> interned = cache.internBaseDimensions(baseDimensions);
+		for (ElementDefinitionCache.Element transaction : transactions) {
+			blackhole.consume(transaction.getPath());
+			blackhole.consume(transaction.getDimensionSet(interned));
+		}
+	}
+}
@@ -1,45 +1,54 @@
 package com.neotys.ps.aws.integration;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
 
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
-import com.amazonaws.services.cloudwatch.AmazonCloudWatchClientBuilder;
-import com.amazonaws.services.cloudwatch.model.Dimension;
 import com.amazonaws.services.cloudwatch.model.InvalidParameterValueException;
-import com.amazonaws.services.cloudwatch.model.MetricDatum;
-import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
-import com.amazonaws.services.cloudwatch.model.StandardUnit;
-import com.google.common.base.Charsets;
 import com.neotys.extensions.action.ActionParameter;
 import com.neotys.extensions.action.engine.ActionEngine;
 import com.neotys.extensions.action.engine.Context;
 import com.neotys.extensions.action.engine.SampleResult;
 
 import io.swagger.client.ApiException;
-import io.swagger.client.api.ResultsApi;
-import io.swagger.client.model.ElementDefinitions;
-import io.swagger.client.model.ElementValues;
-import io.swagger.client.model.TestDefinition;
-import io.swagger.client.model.TestStatistics;
 
 public final class CloudWatchIntegrationActionEngine implements ActionEngine {
 
-	private static String awsRegion;
-	private static String awsAccessKey;
-	private static String awsSecretKey;
-	private static String nlWebHost;
-	private static String nlWebToken;
-	
-	private static void parseParameters(Context context, List<ActionParameter> parameters) {
+	private String awsRegion;
+	private String awsAccessKey;
+	private String awsSecretKey;
+	private List<String> roleArns;
+	private String stsEndpoint;
+	private String nlWebHost;
+	private String nlWebToken;
+	private int nlWebConcurrency;
+	private int exportInterval;
+	private List<TransactionMetric> transactionMetrics;
+	private List<Double> percentiles;
+	private boolean exportMonitors;
+	private int refreshExports;
+
+	private String exporterKey;
+	private TestExporter exporter;
+	private String scheduledTestId;
+	private ScheduledExport scheduledExport;
+
+	/**
+	 * @throws IllegalArgumentException if a parameter has an invalid value
+	 */
+	private void parseParameters(Context context, List<ActionParameter> parameters) {
 		//Initialise the parameters
 		nlWebHost = "neoload-api.saas.neotys.com";
 		nlWebToken = context.getAccountToken();
-		
+		nlWebConcurrency = ElementValuesFetcher.DEFAULT_CONCURRENCY;
+		exportInterval = 0;
+		roleArns = Collections.emptyList();
+		stsEndpoint = null;
+		transactionMetrics = Collections.singletonList(TransactionMetric.AVG_DURATION);
+		percentiles = Collections.emptyList();
+		exportMonitors = false;
+		refreshExports = ElementDefinitionCache.DEFAULT_REFRESH_EXPORTS;
+
 		//Parse the advanced actions parameters
 		for (ActionParameter temp:parameters) {
 			switch (temp.getName().toLowerCase()) {
@@ -52,161 +61,115 @@ public final class CloudWatchIntegrationActionEngine implements ActionEngine {
 			case "secretkey":
 				awsSecretKey = temp.getValue();
 				break;
+			case "role arns":
+				roleArns = parseList(temp.getValue());
+				break;
+			case "sts endpoint":
+				stsEndpoint = temp.getValue();
+				break;
 			case "neoload web host":
 				nlWebHost = temp.getValue();
 				break;
 			case "neoload web token":
 				nlWebToken = temp.getValue();
 				break;
+			case "neoload web concurrency":
+				nlWebConcurrency = Integer.parseInt(temp.getValue());
+				break;
+			case "export interval":
+				exportInterval = Integer.parseInt(temp.getValue());
+				break;
+			case "transaction metrics":
+				transactionMetrics = TransactionMetric.parse(temp.getValue());
+				break;
+			case "export monitors":
+				exportMonitors = Boolean.parseBoolean(temp.getValue());
+				break;
+			case "element refresh exports":
+				refreshExports = Integer.parseInt(temp.getValue());
+				if (refreshExports < 1) {
+					throw new IllegalArgumentException("Element refresh exports must be at least 1: " + refreshExports);
+				}
+				break;
+			case "percentiles":
+				percentiles = new ArrayList<Double>();
+				for (String percentile : parseList(temp.getValue())) {
+					double value = Double.parseDouble(percentile);
+					if (!(value >= 0 && value <= 100)) {
+						throw new IllegalArgumentException("Percentile out of the range 0-100: " + percentile);
+					}
+					percentiles.add(value);
+				}
+				break;
 			default:
 				break;
 			}
 		}
 	}
+
+	private static List<String> parseList(String value) {
+		List<String> values = new ArrayList<String>();
+		for (String item : value.split(",")) {
+			if (!item.trim().isEmpty() && !values.contains(item.trim())) {
+				values.add(item.trim());
+			}
+		}
+		return values;
+	}
+
 	@Override
 	public SampleResult execute(Context context, List<ActionParameter> parameters) {
 		final SampleResult sampleResult = new SampleResult();
 		final StringBuilder requestBuilder = new StringBuilder();
 		final StringBuilder responseBuilder = new StringBuilder();
-		final String awsNameSpace = "NeoLoad";
-		
-		//Parse the parameters
-		parseParameters(context, parameters);
-		appendLineToStringBuilder(requestBuilder,String.format("AWS Region:%s",awsRegion));
 
-		//Instantiate a NL Web API client		
-		String nlWebPath = String.format("https://%s/v1",nlWebHost);		
-		ResultsApi nlWebClient = new ResultsApi(nlWebPath,nlWebToken);
-		
-		//Instantiate an AWS Client						
-		AmazonCloudWatch cwClient = createNewAWSClient(awsAccessKey, awsSecretKey, awsRegion);
-
-		//Wait for the test to start
-				
-		//Get the Test Id
-		String basePath = nlWebClient.getApiClient().getBasePath().toString();
-		appendLineToStringBuilder(requestBuilder,String.format("Base URL:%s",basePath));
+		//Parse the parameters
+		try {
+			parseParameters(context, parameters);
+		} catch (IllegalArgumentException e) {
+			//Also thrown for the invalid numbers
+			return getErrorResult(context,sampleResult,"Invalid parameter: " + e.getMessage(),"NL-CloudWatchIntegration-InvalidParameter",e);
+		}
 		String testId = context.getTestId();
-		appendLineToStringBuilder(requestBuilder,String.format("Test Id:%s",testId));
 
-		//Initialise the dimensions for AWS filtering		
-		Collection<Dimension> dimensions = new ArrayList<Dimension>();
-		addDimension(dimensions,"TestId",testId);
-		
-		try {
-			
-			TestDefinition definition = nlWebClient.getTest(testId);	
-			Double lgCount = new Double(definition.getLgCount());
-			String authorName = convertStringToASCII(definition.getAuthor());
-			String projectName = convertStringToASCII(definition.getProject());
-			String scenarioName = convertStringToASCII(definition.getScenario());
-			String testName = convertStringToASCII(definition.getName());
-			
-			//Log the name of the test
-			appendLineToStringBuilder(requestBuilder,String.format("Name:%s",testName));			
-			appendLineToStringBuilder(requestBuilder,String.format("Description:%s",definition.getDescription()));
-			appendLineToStringBuilder(requestBuilder,String.format("Author:%s",authorName));
-			appendLineToStringBuilder(requestBuilder,String.format("Termination Reason:%s",definition.getTerminationReason()));
-			appendLineToStringBuilder(requestBuilder,String.format("LG count:%s",lgCount.intValue()));
-			appendLineToStringBuilder(requestBuilder,String.format("Project Name:%s",projectName));
-			appendLineToStringBuilder(requestBuilder,String.format("Scenario Name:%s",scenarioName));
-			appendLineToStringBuilder(requestBuilder,String.format("Status:%s",definition.getStatus()));
-			appendLineToStringBuilder(requestBuilder,String.format("Quality Status:%s",definition.getQualityStatus()));
-			appendLineToStringBuilder(requestBuilder,String.format("Start Date:%tc",new Date(definition.getStartDate())));
-			appendLineToStringBuilder(requestBuilder,String.format("Duration:%tT",new Date(definition.getDuration())));
-			sampleResult.setRequestContent(requestBuilder.toString());
-			
-			//Add the test properties to the dimensions
-			addDimension(dimensions,"Author",authorName);
-			addDimension(dimensions,"Project",projectName);
-			addDimension(dimensions,"Scenario",scenarioName);
-			addDimension(dimensions,"Test",testName);
-			
-			final Collection<Dimension> baseDimensions = new ArrayList<Dimension>(dimensions);
-						
-			//Send the number of LGs to AWS
-			AWSPutRequest(cwClient, baseDimensions, awsNameSpace, "Number of LGs", lgCount, StandardUnit.Count);
-			
-			addDimension(dimensions,"Type","Statistics");
-			
-			//Get the latest test statistics
-			TestStatistics stats = nlWebClient.getTestStatistics(testId);
-			int countVU = stats.getLastVirtualUserCount();			
-			float requestsPerSec = stats.getLastRequestCountPerSecond();
-			
-			appendLineToStringBuilder(responseBuilder,String.format("Number of Virtual Users: %d",countVU));			
-			appendLineToStringBuilder(responseBuilder,String.format("Requests per second: %f",requestsPerSec));
-			
-			//Send the number of VUs to CloudWatch
-			AWSPutRequest(cwClient, dimensions, awsNameSpace, "VU", (double) countVU, StandardUnit.Count);			
-			
-			//Send the requests per sec to CloudWatch
-			AWSPutRequest(cwClient, dimensions, awsNameSpace, "Requests per second", (double) requestsPerSec, StandardUnit.CountSecond);
-			
-			//Get the transaction list
-			ElementDefinitions transactions = nlWebClient.getTestElements(testId, "TRANSACTION");
-			
-			//Print the transaction names and response times
-			for (int i=0 ; i < transactions.size(); i++) {
-				//Get the statistics on the transaction
-				ElementValues transactionStat = nlWebClient.getTestElementsValues(testId, transactions.get(i).getId());
-				double avgDuration = transactionStat.getAvgDuration()/1000;
-				
-				//Reset the dimensions
-				dimensions.clear();
-				dimensions.addAll(baseDimensions);
-				
-				//Add a new dimension
-				addDimension(dimensions,"Type","Transaction");
-				
-				//If the current transaction is the all transactions
-				if (transactions.get(i).getType().equals("ALL_TRANSACTIONS")) {
-					//Log the avg response time for all transactions in seconds
-					appendLineToStringBuilder(responseBuilder,String.format("All transactions (Avg Duration): %f sec",avgDuration));
-					
-					addDimension(dimensions,"Transaction Name","All");
-					AWSPutRequest(cwClient, dimensions, awsNameSpace, "Response time", avgDuration, StandardUnit.Seconds);
-					
-				} else {
-					//Get the name of the transaction
-					String transactionName = transactions.get(i).getName();
-					//Get the path
-					List<String> path = transactions.get(i).getPath();
-					
-					//Get the context
-					String scriptName = path.get(0);
-					String baseContainer = path.get(1);
-					
-					StringBuilder transactionPath = new StringBuilder();
-					for (String s : path) {
-						transactionPath.append(s);						
-						transactionPath.append("/");
-					}
-					
-					//Shave the last /
-					transactionPath.deleteCharAt(transactionPath.length()-1);
-					
-					//Add the path to the dimensions
-					addDimension(dimensions,"Full Path",transactionPath.toString());					
-					addDimension(dimensions,"Script",scriptName);
-					addDimension(dimensions,"Action",baseContainer);
-					addDimension(dimensions,"TransactionName",transactionName);
-					
-					//Log the avg response time for the transaction in seconds
-					appendLineToStringBuilder(responseBuilder,String.format("%s (Avg Duration): %f sec",transactionPath.toString(),avgDuration));
-					AWSPutRequest(cwClient, dimensions, awsNameSpace, "Response time", avgDuration, StandardUnit.Seconds);
+		//Background mode: the export runs on its own schedule, the iterations only report its health
+		if (exportInterval > 0) {
+			if (scheduledExport == null) {
+				try {
+					scheduledExport = ScheduledExport.acquire(testId, exportInterval, awsRegion, awsAccessKey, awsSecretKey, roleArns, stsEndpoint, nlWebHost, nlWebToken, nlWebConcurrency, transactionMetrics, percentiles, exportMonitors, refreshExports);
+				} catch (IllegalArgumentException e) {
+					return getErrorResult(context,sampleResult,e.getMessage(),"NL-CloudWatchIntegration-ConflictingExport",e);
 				}
+				scheduledTestId = testId;
 			}
-								
+			sampleResult.sampleStart();
+			scheduledExport.report(sampleResult);
+			sampleResult.sampleEnd();
+			return sampleResult;
+		}
+
+		//Get the exporter of the current parameters, with the clients shared with the other virtual users
+		String key = TestExporter.key(testId, awsRegion, awsAccessKey, awsSecretKey, roleArns, stsEndpoint, nlWebHost, nlWebToken, nlWebConcurrency, transactionMetrics, percentiles, exportMonitors, refreshExports);
+		if (!key.equals(exporterKey)) {
+			closeExporter();
+			exporter = new TestExporter(testId, awsRegion, awsAccessKey, awsSecretKey, roleArns, stsEndpoint, nlWebHost, nlWebToken, nlWebConcurrency, transactionMetrics, percentiles, exportMonitors, refreshExports);
+			exporterKey = key;
+		}
+
+		try {
+			exporter.export(requestBuilder, responseBuilder);
 		} catch (InvalidParameterValueException e) {
+			sampleResult.setRequestContent(requestBuilder.toString());
 			return getErrorResult(context,sampleResult,e.getErrorMessage(),String.format("NL-CloudWatchIntegration-%s",e.getErrorCode()),e);
 		} catch (ApiException e) {
+			sampleResult.setRequestContent(requestBuilder.toString());
 			return getErrorResult(context,sampleResult,e.getMessage(),String.format("NL-CloudWatchIntegration-%d",e.getCode()),e);
 		} catch (NullPointerException e) {
-			return getErrorResult(context,sampleResult,e.getMessage(),String.format("NL-CloudWatchIntegration-%d",e.getCause().toString()),e);
+			sampleResult.setRequestContent(requestBuilder.toString());
+			return getErrorResult(context,sampleResult,e.getMessage(),String.format("NL-CloudWatchIntegration-%s",e.getClass().getSimpleName()),e);
 		}
-		
-		
+		sampleResult.setRequestContent(requestBuilder.toString());
+
 		sampleResult.sampleStart();
 
 		sampleResult.sampleEnd();
@@ -215,10 +178,6 @@ public final class CloudWatchIntegrationActionEngine implements ActionEngine {
 		return sampleResult;
 	}
 
-	private void appendLineToStringBuilder(final StringBuilder sb, final String line){
-		sb.append(line).append("\n");
-	}
-
 	/**
 	 * This method allows to easily create an error result and log exception.
 	 */
@@ -236,46 +195,20 @@ public final class CloudWatchIntegrationActionEngine implements ActionEngine {
 
 	@Override
 	public void stopExecute() {
-		// TODO add code executed when the test have to stop.
-	}
-	
-
-
-	private String convertStringToASCII(String source) {
-		String s = source;
-		byte[] b = s.getBytes(Charsets.US_ASCII);
-		return new String (b);
-		
-	}
-	
-	private AmazonCloudWatch createNewAWSClient(String accessKey, String secretKey, String region) {
-		BasicAWSCredentials awsCredentials = new BasicAWSCredentials(accessKey, secretKey);				
-		AmazonCloudWatch client = AmazonCloudWatchClientBuilder.standard()		
-				.withCredentials(new AWSStaticCredentialsProvider(awsCredentials))
-				.withRegion(region)
-				.build();
-		
-		return client;
-	}
-	
-	private void addDimension(java.util.Collection<Dimension> dimensions, String dimensionName, String dimensionValue) {
-		dimensions.add(
-				new Dimension()
-				.withName(dimensionName)
-				.withValue(dimensionValue));
+		if (scheduledExport != null) {
+			ScheduledExport.release(scheduledTestId);
+			scheduledExport = null;
+			scheduledTestId = null;
+		}
+		closeExporter();
 	}
 
-	private void AWSPutRequest(AmazonCloudWatch client, java.util.Collection<Dimension> dimensions, String nameSpace, String metricName, Double value, StandardUnit unit) {
-		MetricDatum datum = new MetricDatum()
-				.withDimensions(dimensions)
-				.withMetricName(metricName)
-				.withUnit(unit)
-				.withValue(value);			
-		
-		PutMetricDataRequest request = new PutMetricDataRequest()
-				.withNamespace(nameSpace)
-				.withMetricData(datum);
-		
-		client.putMetricData(request);
+	private void closeExporter() {
+		if (exporter != null) {
+			//Send the datums left over by an interrupted run and release the clients
+			exporter.close();
+			exporter = null;
+			exporterKey = null;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,116 @@
+package com.neotys.ps.aws.integration;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming quantile sketch of durations, with a bounded relative error.
+ * Durations are counted in logarithmic buckets: every value of a bucket is within RELATIVE_ACCURACY of the value returned for it,
+ * so that a sketch uses the same fixed memory whatever the number of recorded values.
+ */
+final class DurationSketch {
+
+	/** Maximum relative error of the returned quantiles. */
+	static final double RELATIVE_ACCURACY = 0.01;
+	/** Durations are in milliseconds, the last bucket holds everything above 1000 hours. */
+	private static final double MAX_DURATION = 3.6e9;
+
+	private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+	private static final int BUCKET_COUNT = bucketIndex(MAX_DURATION) + 1;
+
+	private final long[] counts = new long[BUCKET_COUNT];
+	private long count;
+	private double max;
+
+	/**
+	 * Record a duration several times.
+	 * @param duration duration in milliseconds, durations below 1 ms are counted as 1 ms
+	 */
+	void record(double duration, long occurrences) {
+		if (occurrences <= 0 || Double.isNaN(duration)) {
+			return;
+		}
+		counts[Math.min(bucketIndex(duration), BUCKET_COUNT - 1)] += occurrences;
+		count += occurrences;
+		max = Math.max(max, duration);
+	}
+
+	/**
+	 * @param quantile quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+	 * @return the duration of the quantile in milliseconds, NaN if no duration has been recorded
+	 */
+	double getQuantile(double quantile) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		long rank = (long) Math.ceil(quantile * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= Math.max(1, rank)) {
+				return getBucketValue(i);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Get the recorded durations as distinct values with the number of occurrences of each value, one value per non empty bucket.
+	 * When there are more non empty buckets than maxValues, neighbour buckets are merged into their weighted average,
+	 * the error of a merged value being then bounded by the width of the merged buckets instead of RELATIVE_ACCURACY.
+	 * @param scale factor applied to the durations, e.g. 0.001 for seconds
+	 * @param values receives the durations, in increasing order
+	 * @param occurrences receives the number of occurrences of each duration
+	 */
+	void getDistribution(int maxValues, double scale, List<Double> values, List<Double> occurrences) {
+		int bucketsUsed = 0;
+		for (long bucketCount : counts) {
+			if (bucketCount > 0) {
+				bucketsUsed++;
+			}
+		}
+		int bucketsPerValue = (bucketsUsed + maxValues - 1) / maxValues;
+		int merged = 0;
+		double mergedSum = 0;
+		long mergedCount = 0;
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			mergedSum += getBucketValue(i) * counts[i];
+			mergedCount += counts[i];
+			seen += counts[i];
+			//The last bucket ends the last value, even when fewer buckets are left to merge
+			if (++merged == bucketsPerValue || seen == count) {
+				values.add(mergedSum / mergedCount * scale);
+				occurrences.add((double) mergedCount);
+				merged = 0;
+				mergedSum = 0;
+				mergedCount = 0;
+			}
+		}
+	}
+
+	long getCount() {
+		return count;
+	}
+
+	void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		max = 0;
+	}
+
+	/**
+	 * @return the middle of the bucket, never above the highest recorded value
+	 */
+	private double getBucketValue(int index) {
+		return Math.min(2 * Math.pow(GAMMA, index) / (GAMMA + 1), max);
+	}
+
+	private static int bucketIndex(double duration) {
+		return duration <= 1 ? 0 : (int) Math.ceil(Math.log(duration) / LOG_GAMMA);
+	}
+}
@@ -0,0 +1,238 @@
+package com.neotys.ps.aws.integration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+
+import io.swagger.client.ApiException;
+import io.swagger.client.api.ResultsApi;
+import io.swagger.client.model.ElementDefinition;
+
+/**
+ * Process wide cache of the elements of a test, with the dimensions of each element, shared by the exporters of the test.
+ * The list of elements does not change much during a test: it is only read again from NeoLoad Web every few exports of the test,
+ * and only the new elements get their dimensions built. Counting exports rather than time keeps the reads rare whatever the pacing,
+ * an element started during the test being exported at most that many exports late. Caches are reference counted like the clients.
+ * The cache also interns the dimension sets of the elements: each element keeps the immutable list of the dimensions of the test
+ * followed by its own dimensions, so that the exports send the same Dimension objects at each run.
+ * MetricDatum copies the list it is given, so each element also keeps a datum template per metric holding that copy:
+ * the datums of an export are shallow clones of the templates, which share the copied list instead of copying it again.
+ * The lines of the response are prefixed with labels built once per element and metric.
+ */
+final class ElementDefinitionCache {
+
+	/** Default number of exports of the test between two reads of the elements. */
+	static final int DEFAULT_REFRESH_EXPORTS = 5;
+
+	private static final Map<String, ElementDefinitionCache> CACHES = new HashMap<String, ElementDefinitionCache>();
+
+	/**
+	 * An element of the test, with the dimensions identifying it.
+	 */
+	static final class Element {
+		private final ElementDefinition definition;
+		private final String path;
+		private final List<Dimension> dimensions;
+		/** Start of the line of each metric in the response, by ordinal of the metric. */
+		private final String[] labels;
+		private volatile DimensionSet dimensionSet;
+
+		Element(ElementDefinition definition) {
+			List<Dimension> elementDimensions = new ArrayList<Dimension>();
+			this.definition = definition;
+			this.path = TestExporter.addTransactionDimensions(elementDimensions, definition);
+			this.dimensions = Collections.unmodifiableList(elementDimensions);
+			TransactionMetric[] metrics = TransactionMetric.values();
+			this.labels = new String[metrics.length];
+			for (TransactionMetric metric : metrics) {
+				labels[metric.ordinal()] = path + " (" + metric.getFieldName() + "): ";
+			}
+		}
+
+		ElementDefinition getDefinition() {
+			return definition;
+		}
+
+		String getId() {
+			return definition.getId();
+		}
+
+		/**
+		 * @return the display name of the element
+		 */
+		String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return the dimensions of the element, without the dimensions of the test
+		 */
+		List<Dimension> getDimensions() {
+			return dimensions;
+		}
+
+		/**
+		 * Get the dimensions of the test followed by the dimensions of the element.
+		 * The list is built once for each set of test dimensions, and is then returned as is.
+		 * @param baseDimensions dimensions of the test, interned by internBaseDimensions()
+		 */
+		List<Dimension> getDimensionSet(List<Dimension> baseDimensions) {
+			return getSet(baseDimensions).dimensions;
+		}
+
+		/**
+		 * Get a new datum of a metric of the element, with its metric name, unit and dimension set.
+		 * The datum is a shallow clone of the template of the metric: only its value and timestamp are left to set.
+		 * @param baseDimensions dimensions of the test, interned by internBaseDimensions()
+		 */
+		MetricDatum newDatum(List<Dimension> baseDimensions, TransactionMetric metric) {
+			return getSet(baseDimensions).templates[metric.ordinal()].clone();
+		}
+
+		/**
+		 * @return the start of the line of a metric of the element in the response of the action
+		 */
+		String getLabel(TransactionMetric metric) {
+			return labels[metric.ordinal()];
+		}
+
+		private DimensionSet getSet(List<Dimension> baseDimensions) {
+			DimensionSet set = dimensionSet;
+			if (set == null || set.baseDimensions != baseDimensions) {
+				List<Dimension> allDimensions = new ArrayList<Dimension>(baseDimensions.size() + dimensions.size());
+				allDimensions.addAll(baseDimensions);
+				allDimensions.addAll(dimensions);
+				set = new DimensionSet(baseDimensions, Collections.unmodifiableList(allDimensions));
+				dimensionSet = set;
+			}
+			return set;
+		}
+	}
+
+	/**
+	 * Dimensions of an element, with the dimensions of the test they have been built for and the datum templates using them.
+	 */
+	private static final class DimensionSet {
+		private final List<Dimension> baseDimensions;
+		private final List<Dimension> dimensions;
+		/** Datum of each metric without value nor timestamp, by ordinal of the metric. Never sent, only cloned. */
+		private final MetricDatum[] templates;
+
+		private DimensionSet(List<Dimension> baseDimensions, List<Dimension> dimensions) {
+			this.baseDimensions = baseDimensions;
+			this.dimensions = dimensions;
+			TransactionMetric[] metrics = TransactionMetric.values();
+			this.templates = new MetricDatum[metrics.length];
+			for (TransactionMetric metric : metrics) {
+				templates[metric.ordinal()] = new MetricDatum()
+						.withDimensions(dimensions)
+						.withMetricName(metric.getMetricName())
+						.withUnit(metric.getUnit());
+			}
+		}
+	}
+
+	private final String testId;
+	private final String type;
+	private int references;
+	private List<Element> elements;
+	private Map<String, Element> elementsById = Collections.emptyMap();
+	private int exportsSinceRefresh;
+	private List<Dimension> baseDimensions = Collections.emptyList();
+
+	private ElementDefinitionCache(String testId, String type) {
+		this.testId = testId;
+		this.type = type;
+	}
+
+	static String key(String nlWebClientKey, String testId, String type) {
+		return nlWebClientKey + "|" + testId + "|" + type;
+	}
+
+	/**
+	 * Get the cache of the elements of the given type of a test.
+	 * @param key key of the cache, built by key()
+	 */
+	static synchronized ElementDefinitionCache acquire(String key, String testId, String type) {
+		ElementDefinitionCache cache = CACHES.get(key);
+		if (cache == null) {
+			cache = new ElementDefinitionCache(testId, type);
+			CACHES.put(key, cache);
+		}
+		cache.references++;
+		return cache;
+	}
+
+	static synchronized void release(String key) {
+		ElementDefinitionCache cache = CACHES.get(key);
+		if (cache == null) {
+			return;
+		}
+		cache.references--;
+		if (cache.references <= 0) {
+			CACHES.remove(key);
+		}
+	}
+
+	/**
+	 * Get the elements of the test for an export, reading them again from NeoLoad Web once every refreshExports exports of the test.
+	 * As long as the test has no element, they are read at each export.
+	 * @param refreshExports number of exports between two reads of the elements
+	 * @return the elements, in the order of NeoLoad Web
+	 */
+	synchronized List<Element> getElements(ResultsApi client, int refreshExports) throws ApiException {
+		if (elements == null || elements.isEmpty() || ++exportsSinceRefresh >= refreshExports) {
+			refresh(client.getTestElements(testId, type));
+		}
+		return elements;
+	}
+
+	/**
+	 * Get the interned copy of the dimensions of the test: the same immutable list is returned as long as the dimensions have the same names and values.
+	 */
+	synchronized List<Dimension> internBaseDimensions(Collection<Dimension> dimensions) {
+		if (!sameDimensions(baseDimensions, dimensions)) {
+			baseDimensions = Collections.unmodifiableList(new ArrayList<Dimension>(dimensions));
+		}
+		return baseDimensions;
+	}
+
+	private static boolean sameDimensions(List<Dimension> interned, Collection<Dimension> dimensions) {
+		if (interned.size() != dimensions.size()) {
+			return false;
+		}
+		Iterator<Dimension> iterator = dimensions.iterator();
+		for (Dimension dimension : interned) {
+			if (!dimension.equals(iterator.next())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Replace the elements by the given definitions, keeping the elements already known.
+	 */
+	synchronized void refresh(List<ElementDefinition> definitions) {
+		List<Element> refreshed = new ArrayList<Element>(definitions.size());
+		Map<String, Element> refreshedById = new HashMap<String, Element>();
+		for (ElementDefinition definition : definitions) {
+			Element element = elementsById.get(definition.getId());
+			if (element == null) {
+				element = new Element(definition);
+			}
+			refreshed.add(element);
+			refreshedById.put(definition.getId(), element);
+		}
+		elements = Collections.unmodifiableList(refreshed);
+		elementsById = refreshedById;
+		exportsSinceRefresh = 0;
+	}
+}
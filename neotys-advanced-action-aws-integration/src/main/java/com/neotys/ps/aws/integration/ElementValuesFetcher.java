@@ -0,0 +1,139 @@
+package com.neotys.ps.aws.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.swagger.client.ApiException;
+import io.swagger.client.api.ResultsApi;
+import io.swagger.client.model.CounterDefinition;
+import io.swagger.client.model.CounterValues;
+import io.swagger.client.model.ElementValues;
+import io.swagger.client.model.PointTable;
+
+/**
+ * Fetches the values or the points of several test elements, or the values of several monitor counters, from NeoLoad Web in parallel.
+ * The number of requests in flight is bounded by the size of the worker pool.
+ */
+final class ElementValuesFetcher {
+
+	static final int DEFAULT_CONCURRENCY = 8;
+
+	private final ExecutorService executor;
+
+	ElementValuesFetcher(int concurrency) {
+		this.executor = Executors.newFixedThreadPool(Math.max(1, concurrency), new DaemonThreadFactory("NL-CloudWatchIntegration-fetch"));
+	}
+
+	/**
+	 * Get the values of all the elements.
+	 * @return the values, in the same order as the elements
+	 * @throws ApiException the first error returned by NeoLoad Web, in element order
+	 */
+	List<ElementValues> fetch(final ResultsApi client, final String testId, List<ElementDefinitionCache.Element> elements) throws ApiException {
+		List<Callable<ElementValues>> calls = new ArrayList<Callable<ElementValues>>(elements.size());
+		for (final ElementDefinitionCache.Element element : elements) {
+			calls.add(new Callable<ElementValues>() {
+				@Override
+				public ElementValues call() throws ApiException {
+					return client.getTestElementsValues(testId, element.getId());
+				}
+			});
+		}
+		return fetchAll(calls);
+	}
+
+	/**
+	 * Get the points of several statistics of all the elements, with one request per element.
+	 * @param statistics comma separated statistics of getTestElementsPoints, e.g. AVG_DURATION,COUNT
+	 * @return the points, in the same order as the elements
+	 * @throws ApiException the first error returned by NeoLoad Web, in element order
+	 */
+	List<PointTable> fetchPoints(final ResultsApi client, final String testId, List<ElementDefinitionCache.Element> elements, final String statistics) throws ApiException {
+		List<Callable<PointTable>> calls = new ArrayList<Callable<PointTable>>(elements.size());
+		for (final ElementDefinitionCache.Element element : elements) {
+			calls.add(new Callable<PointTable>() {
+				@Override
+				public PointTable call() throws ApiException {
+					return client.getTestElementsPointTable(testId, element.getId(), statistics);
+				}
+			});
+		}
+		return fetchAll(calls);
+	}
+
+	/**
+	 * Get the values of all the monitor counters.
+	 * @return the values, in the same order as the counters
+	 * @throws ApiException the first error returned by NeoLoad Web, in counter order
+	 */
+	List<CounterValues> fetchCounters(final ResultsApi client, final String testId, List<CounterDefinition> counters) throws ApiException {
+		List<Callable<CounterValues>> calls = new ArrayList<Callable<CounterValues>>(counters.size());
+		for (final CounterDefinition counter : counters) {
+			calls.add(new Callable<CounterValues>() {
+				@Override
+				public CounterValues call() throws ApiException {
+					return client.getTestMonitorsValues(testId, counter.getId());
+				}
+			});
+		}
+		return fetchAll(calls);
+	}
+
+	private <T> List<T> fetchAll(List<Callable<T>> calls) throws ApiException {
+		List<Future<T>> futures = new ArrayList<Future<T>>(calls.size());
+		for (Callable<T> call : calls) {
+			futures.add(executor.submit(call));
+		}
+
+		List<T> values = new ArrayList<T>(calls.size());
+		try {
+			for (Future<T> future : futures) {
+				values.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ApiException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ApiException) {
+				throw (ApiException) e.getCause();
+			}
+			throw new ApiException(e.getCause());
+		} finally {
+			//Do not leave requests running for a failed fetch
+			for (Future<T> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return values;
+	}
+
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Worker threads must not prevent the load generator from stopping.
+	 */
+	static final class DaemonThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
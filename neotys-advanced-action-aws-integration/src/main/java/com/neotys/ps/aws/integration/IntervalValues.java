@@ -0,0 +1,60 @@
+package com.neotys.ps.aws.integration;
+
+/**
+ * Values of the interval between two reads of values that NeoLoad Web gives since the start of the test,
+ * such as the totals of a transaction or the sum of the values of a monitor counter.
+ * The values of the interval are the differences with the last read, unless the count is lower than at the last read:
+ * the values have then been reset, and the interval starts from zero.
+ */
+final class IntervalValues {
+
+	private IntervalValues() {
+	}
+
+	/**
+	 * @param previousCount count at the last read, null for the first read
+	 * @return the count of the interval, or null if the current count is not available
+	 */
+	static Long getCount(Long previousCount, Long count) {
+		if (count == null) {
+			return null;
+		}
+		return isContinued(previousCount, count) ? count - previousCount : count;
+	}
+
+	/**
+	 * @param previousCount count at the last read, null for the first read
+	 * @param previousTotal total at the last read, null for the first read
+	 * @return the total of the interval, the total since the start of the test without count, or null if the total is not available
+	 */
+	static Double getTotal(Long previousCount, Number previousTotal, Long count, Number total) {
+		if (total == null) {
+			return null;
+		}
+		if (count == null || previousTotal == null || !isContinued(previousCount, count)) {
+			return total.doubleValue();
+		}
+		return total.doubleValue() - previousTotal.doubleValue();
+	}
+
+	/**
+	 * @param previousCount count at the last read, null for the first read
+	 * @param previousTotal total at the last read, null for the first read
+	 * @param average average since the start of the test, returned as is when the count or the total is not available
+	 * @return the average of the interval, or null if the interval is empty or the average is not available
+	 */
+	static Double getAverage(Long previousCount, Number previousTotal, Long count, Number total, Number average) {
+		if (count == null || total == null) {
+			return average == null ? null : average.doubleValue();
+		}
+		long intervalCount = previousTotal == null ? count : getCount(previousCount, count);
+		if (intervalCount == 0) {
+			return null;
+		}
+		return getTotal(previousCount, previousTotal, count, total) / intervalCount;
+	}
+
+	private static boolean isContinued(Long previousCount, long count) {
+		return previousCount != null && previousCount <= count;
+	}
+}
@@ -0,0 +1,186 @@
+package com.neotys.ps.aws.integration;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+/**
+ * Collects the datums produced by one execution of the action and sends them to CloudWatch
+ * in as few PutMetricData requests as the service limits allow.
+ */
+final class MetricDataPublisher {
+
+	/** Default maximum number of PutMetricData requests per second, the default CloudWatch quota. */
+	static final double DEFAULT_MAX_RATE = 150;
+	/** Maximum number of MetricDatum accepted by CloudWatch in a single PutMetricData request. */
+	static final int MAX_DATUMS_PER_REQUEST = 1000;
+	/** Maximum payload of a PutMetricData request is 1MB, keep some room for the request envelope. */
+	static final int MAX_PAYLOAD_BYTES = 900 * 1024;
+	/** Rough size of the form encoded keys written for each field, e.g. MetricData.member.12.Dimensions.member.3.Value= */
+	private static final int FIELD_OVERHEAD_BYTES = 48;
+
+	private final AmazonCloudWatch client;
+	private final String nameSpace;
+	private final AdaptiveRateLimiter rateLimiter;
+	private final List<MetricDatum> pendingData = new ArrayList<MetricDatum>();
+	/** Bit i is set when the pending datum i belongs to the same group as the datum i-1, and must be sent in the same request. */
+	private BitSet groupContinuations = new BitSet();
+	private int sentDatums;
+	private int sentRequests;
+
+	/**
+	 * Create a publisher that only queues datums: it cannot be flushed, its datums are sent by the publishers they are moved to with movePendingTo.
+	 */
+	MetricDataPublisher(String nameSpace) {
+		this(null, nameSpace, null);
+	}
+
+	MetricDataPublisher(AmazonCloudWatch client, String nameSpace) {
+		this(client, nameSpace, new AdaptiveRateLimiter(DEFAULT_MAX_RATE));
+	}
+
+	/**
+	 * @param rateLimiter limiter of the PutMetricData requests, usually shared by all the publishers of the client
+	 */
+	MetricDataPublisher(AmazonCloudWatch client, String nameSpace, AdaptiveRateLimiter rateLimiter) {
+		this.client = client;
+		this.nameSpace = nameSpace;
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Queue a datum. The timestamp is set now so that the value is dated when it was read, not when it is flushed.
+	 */
+	synchronized void add(Collection<Dimension> dimensions, String metricName, Double value, StandardUnit unit) {
+		add(new MetricDatum()
+				.withDimensions(dimensions)
+				.withMetricName(metricName)
+				.withUnit(unit)
+				.withValue(value)
+				.withTimestamp(new Date()));
+	}
+
+	synchronized void add(MetricDatum datum) {
+		pendingData.add(datum);
+	}
+
+	/**
+	 * Queue a group of datums, e.g. the metrics of one transaction, that are sent in the same request.
+	 */
+	synchronized void addGroup(List<MetricDatum> datums) {
+		if (!datums.isEmpty()) {
+			groupContinuations.set(pendingData.size() + 1, pendingData.size() + datums.size());
+		}
+		pendingData.addAll(datums);
+	}
+
+	/**
+	 * Send all the queued datums, in requests of at most MAX_DATUMS_PER_REQUEST datums and MAX_PAYLOAD_BYTES.
+	 * Throttled requests are sent again after a backoff, datums of a failed request stay queued so that a later flush can retry them.
+	 * @return the number of PutMetricData requests sent
+	 */
+	synchronized int flush() {
+		int requests = 0;
+		while (!pendingData.isEmpty()) {
+			List<MetricDatum> batch = pendingData.subList(0, nextBatchSize());
+
+			final PutMetricDataRequest request = new PutMetricDataRequest()
+					.withNamespace(nameSpace)
+					.withMetricData(batch);
+
+			rateLimiter.execute(new AdaptiveRateLimiter.Request<PutMetricDataResult>() {
+				@Override
+				public PutMetricDataResult send() {
+					return client.putMetricData(request);
+				}
+			});
+
+			sentDatums += batch.size();
+			sentRequests++;
+			groupContinuations = groupContinuations.get(batch.size(), Math.max(batch.size(), groupContinuations.length()));
+			batch.clear();
+			requests++;
+		}
+		return requests;
+	}
+
+	private int nextBatchSize() {
+		int size = 0;
+		int payload = 0;
+		while (size < pendingData.size() && size < MAX_DATUMS_PER_REQUEST) {
+			payload += estimateSize(pendingData.get(size));
+			if (payload > MAX_PAYLOAD_BYTES && size > 0) {
+				break;
+			}
+			size++;
+		}
+		//Do not split a group, unless it does not fit in a request by itself
+		int groupStart = size;
+		while (groupStart > 0 && groupContinuations.get(groupStart)) {
+			groupStart--;
+		}
+		return groupStart > 0 ? groupStart : size;
+	}
+
+	static int estimateSize(MetricDatum datum) {
+		// Name, unit, value and timestamp
+		int size = 4 * FIELD_OVERHEAD_BYTES + datum.getMetricName().length() + 32;
+		for (Dimension dimension : datum.getDimensions()) {
+			size += 2 * FIELD_OVERHEAD_BYTES + dimension.getName().length() + dimension.getValue().length();
+		}
+		// Values and counts of a distribution
+		size += (datum.getValues().size() + datum.getCounts().size()) * (FIELD_OVERHEAD_BYTES + 24);
+		return size;
+	}
+
+	AdaptiveRateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Move the datums queued in this publisher to each of the other publishers, keeping their groups.
+	 * Each publisher then owns its copy: the datums left over by a failed flush of one publisher are not sent again by the others.
+	 */
+	void movePendingTo(List<MetricDataPublisher> others) {
+		List<MetricDatum> datums;
+		BitSet continuations;
+		synchronized (this) {
+			datums = new ArrayList<MetricDatum>(pendingData);
+			continuations = (BitSet) groupContinuations.clone();
+			pendingData.clear();
+			groupContinuations.clear();
+		}
+		for (MetricDataPublisher other : others) {
+			other.addAll(datums, continuations);
+		}
+	}
+
+	private synchronized void addAll(List<MetricDatum> datums, BitSet continuations) {
+		int offset = pendingData.size();
+		for (int i = continuations.nextSetBit(0); i >= 0; i = continuations.nextSetBit(i + 1)) {
+			groupContinuations.set(offset + i);
+		}
+		pendingData.addAll(datums);
+	}
+
+	synchronized int getPendingCount() {
+		return pendingData.size();
+	}
+
+	synchronized int getSentDatums() {
+		return sentDatums;
+	}
+
+	synchronized int getSentRequests() {
+		return sentRequests;
+	}
+}
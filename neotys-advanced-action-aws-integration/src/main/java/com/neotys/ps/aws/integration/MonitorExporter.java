@@ -0,0 +1,142 @@
+package com.neotys.ps.aws.integration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+import io.swagger.client.ApiException;
+import io.swagger.client.api.ResultsApi;
+import io.swagger.client.model.CounterDefinition;
+import io.swagger.client.model.CounterValues;
+
+/**
+ * Exports the monitor counters of a NeoLoad Web test to CloudWatch.
+ * The counters are listed with the dimensions of their path, their values are then read in parallel at each export.
+ * Like the elements of ElementDefinitionCache, the list is read again every few exports of the exporter,
+ * and only the new counters get their dimensions built.
+ * Like the transactions, each counter is exported as the average of the values collected since the last export.
+ */
+final class MonitorExporter {
+
+	private final ElementValuesFetcher fetcher;
+	private List<CounterDefinition> counters = Collections.emptyList();
+	/** Dimensions of each counter, in the same order as the counters. */
+	private List<List<Dimension>> counterDimensions = Collections.emptyList();
+	private Map<String, List<Dimension>> dimensionsById = Collections.emptyMap();
+	/** Dimensions shared by the counters, by name and value. */
+	private final Map<String, Dimension> sharedDimensions = new HashMap<String, Dimension>();
+	private final int refreshExports;
+	private int exportsSinceRefresh;
+	/** Values of each counter at the last export, shared by the exporters of the test. */
+	private final Map<String, CounterValues> lastValues;
+
+	/**
+	 * @param fetcher fetcher of the exporter, used to read the values of all the counters in parallel
+	 * @param lastValues values of each counter at the last export, updated by each export
+	 * @param refreshExports number of exports between two reads of the list of counters
+	 */
+	MonitorExporter(ElementValuesFetcher fetcher, Map<String, CounterValues> lastValues, int refreshExports) {
+		this.fetcher = fetcher;
+		this.lastValues = lastValues;
+		this.refreshExports = refreshExports;
+	}
+
+	/**
+	 * Queue a datum for each counter with new values since the last export.
+	 * The datums are sent with the other datums of the export.
+	 */
+	void addMonitorDatums(ResultsApi client, String testId, MetricDataPublisher publisher, Collection<Dimension> baseDimensions, StringBuilder responseBuilder) throws ApiException {
+		//The monitors may not be started yet at the first exports of the test: list them until some are found, and then again to get the new ones
+		if (counters.isEmpty() || ++exportsSinceRefresh >= refreshExports) {
+			refresh(client.getTestMonitorDefinitions(testId), baseDimensions);
+		}
+
+		List<CounterValues> values = fetcher.fetchCounters(client, testId, counters);
+		Date timestamp = new Date();
+		int exportedCount = 0;
+		for (int i = 0; i < counters.size(); i++) {
+			CounterDefinition counter = counters.get(i);
+			Double value = getIntervalAvg(lastValues.put(counter.getId(), values.get(i)), values.get(i));
+			if (value == null) {
+				continue;
+			}
+			publisher.add(new MetricDatum()
+					.withDimensions(counterDimensions.get(i))
+					.withMetricName(counter.getName())
+					.withUnit(StandardUnit.None)
+					.withValue(value)
+					.withTimestamp(timestamp));
+			exportedCount++;
+		}
+		responseBuilder.append(String.format("Monitors: %d counters exported out of %d", exportedCount, counters.size())).append("\n");
+	}
+
+	/**
+	 * Replace the counters by the given definitions, keeping the dimensions of the counters already known.
+	 * Counters of the same monitor share the same Dimension objects for the parts of their path they have in common.
+	 */
+	void refresh(List<CounterDefinition> definitions, Collection<Dimension> baseDimensions) {
+		List<CounterDefinition> refreshed = new ArrayList<CounterDefinition>(definitions.size());
+		List<List<Dimension>> refreshedDimensions = new ArrayList<List<Dimension>>(definitions.size());
+		Map<String, List<Dimension>> refreshedById = new HashMap<String, List<Dimension>>();
+		Dimension type = getSharedDimension(sharedDimensions, "Type", "Monitor");
+		for (CounterDefinition counter : definitions) {
+			if (counter.getId() == null || counter.getName() == null) {
+				continue;
+			}
+			List<Dimension> dimensions = dimensionsById.get(counter.getId());
+			if (dimensions == null) {
+				dimensions = new ArrayList<Dimension>(baseDimensions);
+				dimensions.add(type);
+				List<String> path = counter.getPath();
+				if (path != null && !path.isEmpty()) {
+					dimensions.add(getSharedDimension(sharedDimensions, "Monitor", path.get(0)));
+					StringBuilder fullPath = new StringBuilder();
+					for (String s : path) {
+						fullPath.append(s).append("/");
+					}
+					//Shave the last /
+					fullPath.deleteCharAt(fullPath.length()-1);
+					dimensions.add(getSharedDimension(sharedDimensions, "Full Path", fullPath.toString()));
+				}
+			}
+			refreshed.add(counter);
+			refreshedDimensions.add(dimensions);
+			refreshedById.put(counter.getId(), dimensions);
+		}
+		counters = refreshed;
+		counterDimensions = refreshedDimensions;
+		dimensionsById = refreshedById;
+		//Forget the values of the counters removed from the test
+		lastValues.keySet().retainAll(refreshedById.keySet());
+		exportsSinceRefresh = 0;
+	}
+
+	private static Dimension getSharedDimension(Map<String, Dimension> sharedDimensions, String name, String value) {
+		String key = name + "|" + value;
+		Dimension dimension = sharedDimensions.get(key);
+		if (dimension == null) {
+			dimension = new Dimension().withName(name).withValue(value);
+			sharedDimensions.put(key, dimension);
+		}
+		return dimension;
+	}
+
+	/**
+	 * Get the average of the values collected between two reads of the values of a counter.
+	 * @param previous values at the last export, null for the first export
+	 * @return the average of the interval, or null if no value has been collected during the interval
+	 */
+	static Double getIntervalAvg(CounterValues previous, CounterValues current) {
+		return IntervalValues.getAverage(previous == null ? null : previous.getCount(), previous == null ? null : previous.getSum(),
+				current.getCount(), current.getSum(), current.getAvg());
+	}
+}
@@ -0,0 +1,149 @@
+package com.neotys.ps.aws.integration;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+import io.swagger.client.ApiException;
+import io.swagger.client.api.ResultsApi;
+import io.swagger.client.model.PointSeries;
+import io.swagger.client.model.PointTable;
+
+/**
+ * Exports percentiles of the response time of each transaction, computed from the points of NeoLoad Web.
+ * Each point gives the average, the maximum and the number of executions of a transaction for a short interval:
+ * they are recorded in a quantile sketch per transaction, so that the tail latency is not hidden by the averages.
+ * Like the averages, the percentiles only cover the points since the last export.
+ * <p>
+ * The sketch of each transaction is published as a single datum, the values of its buckets with their counts:
+ * CloudWatch computes any percentile of the DISTRIBUTION_METRIC_NAME metric from them, over any period.
+ * The configured percentiles are only computed locally for the response of the action.
+ * <p>
+ * The points do not give the durations of the executions: the sketch gets one execution at the maximum of each point
+ * and the other executions at the average of the rest of the point. The percentiles are those of this rebuilt distribution,
+ * an approximation that flattens the spread inside each point: the relative accuracy of the sketch only bounds the error
+ * of its buckets, not the error against the real response times.
+ * <p>
+ * The points API has no start offset: each export reads the whole series of each transaction, the three statistics
+ * in one request, so the cost of an export grows with the duration of the test.
+ */
+final class PercentileExporter {
+
+	static final String DISTRIBUTION_METRIC_NAME = "Response time distribution";
+	/** Maximum number of distinct values of a datum accepted by CloudWatch. */
+	static final int MAX_VALUES_PER_DATUM = 150;
+	private static final String STATISTICS = "AVG_DURATION,MAX_DURATION,COUNT";
+
+	private final List<Double> percentiles;
+	private final ElementValuesFetcher fetcher;
+	private final DurationSketch sketch = new DurationSketch();
+	/** Offset of the last exported point of each element, shared by the exporters of the test. */
+	private final Map<String, Long> lastOffsets;
+
+	/**
+	 * @param percentiles percentiles to publish, between 0 and 100
+	 * @param fetcher fetcher of the exporter, used to read the points of all the transactions in parallel
+	 * @param lastOffsets offset of the last exported point of each element, updated by each export
+	 */
+	PercentileExporter(List<Double> percentiles, ElementValuesFetcher fetcher, Map<String, Long> lastOffsets) {
+		this.percentiles = percentiles;
+		this.fetcher = fetcher;
+		this.lastOffsets = lastOffsets;
+	}
+
+	/**
+	 * Queue the distribution datum of each transaction executed since the last export.
+	 * The datums are sent with the other datums of the export, the percentiles do not add requests of their own.
+	 */
+	void addPercentileDatums(ResultsApi client, String testId, MetricDataPublisher publisher, List<Dimension> baseDimensions, List<ElementDefinitionCache.Element> transactions, StringBuilder responseBuilder) throws ApiException {
+		//One request per transaction, returning the points of the three statistics since the start of the test
+		List<PointTable> points = fetcher.fetchPoints(client, testId, transactions, STATISTICS);
+
+		for (int i = 0; i < transactions.size(); i++) {
+			ElementDefinitionCache.Element transaction = transactions.get(i);
+			PointTable transactionPoints = points.get(i);
+			Long lastOffset = lastOffsets.get(transaction.getId());
+			Long newOffset = record(transactionPoints.getSeries("AVG_DURATION"), transactionPoints.getSeries("MAX_DURATION"), transactionPoints.getSeries("COUNT"), lastOffset == null ? Long.MIN_VALUE : lastOffset);
+			if (newOffset == null) {
+				continue;
+			}
+			lastOffsets.put(transaction.getId(), newOffset);
+
+			publisher.add(getDistributionDatum(transaction.getDimensionSet(baseDimensions)));
+
+			StringBuilder line = new StringBuilder(transaction.getPath()).append(" (Percentiles):");
+			for (Double percentile : percentiles) {
+				line.append(String.format(" %s %f sec", getName(percentile), sketch.getQuantile(percentile / 100) / 1000));
+			}
+			responseBuilder.append(line).append("\n");
+		}
+	}
+
+	/**
+	 * @return the datum of the durations recorded in the sketch, in seconds
+	 */
+	MetricDatum getDistributionDatum(List<Dimension> dimensions) {
+		List<Double> values = new ArrayList<Double>();
+		List<Double> counts = new ArrayList<Double>();
+		sketch.getDistribution(MAX_VALUES_PER_DATUM, 0.001, values, counts);
+		return new MetricDatum()
+				.withDimensions(dimensions)
+				.withMetricName(DISTRIBUTION_METRIC_NAME)
+				.withUnit(StandardUnit.Seconds)
+				.withValues(values)
+				.withCounts(counts)
+				.withTimestamp(new Date());
+	}
+
+	/**
+	 * Reset the sketch and record the executions of the points after the given offset.
+	 * The maximum of a point is recorded once, and the other executions of the point at the average of the remaining duration.
+	 * The last point of the series is still open: it is left for the next export, once its values are final.
+	 * @return the offset of the last recorded point, or null if no execution has been recorded
+	 */
+	Long record(PointSeries avgDurations, PointSeries maxDurations, PointSeries counts, long lastOffset) {
+		sketch.reset();
+		long newOffset = lastOffset;
+		int size = Math.min(avgDurations.size(), Math.min(maxDurations.size(), counts.size()));
+		if (size == 0) {
+			return null;
+		}
+		//The open point is the last one of the series, of the shortest one when a series has been read after the others
+		long openOffset = Math.min(avgDurations.getOffset(avgDurations.size() - 1),
+				Math.min(maxDurations.getOffset(maxDurations.size() - 1), counts.getOffset(counts.size() - 1)));
+		for (int i = 0; i < size; i++) {
+			long offset = counts.getOffset(i);
+			float count = counts.getValue(i);
+			if (offset <= lastOffset || offset >= openOffset || Float.isNaN(count) || count < 1
+					|| avgDurations.getOffset(i) != offset || maxDurations.getOffset(i) != offset) {
+				continue;
+			}
+			long executions = (long) count;
+			double avgDuration = avgDurations.getValue(i);
+			double maxDuration = maxDurations.getValue(i);
+			if (Double.isNaN(maxDuration) || executions == 1) {
+				sketch.record(avgDuration, executions);
+			} else {
+				sketch.record((avgDuration * executions - maxDuration) / (executions - 1), executions - 1);
+				sketch.record(maxDuration, 1);
+			}
+			newOffset = Math.max(newOffset, offset);
+		}
+		return sketch.getCount() == 0 ? null : newOffset;
+	}
+
+	/**
+	 * @return the name of a percentile, e.g. p99 or p99.9
+	 */
+	static String getName(double percentile) {
+		if (percentile == Math.rint(percentile)) {
+			return "p" + (long) percentile;
+		}
+		return "p" + percentile;
+	}
+}
@@ -0,0 +1,176 @@
+package com.neotys.ps.aws.integration;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AmazonServiceException;
+import com.neotys.extensions.action.engine.SampleResult;
+
+import io.swagger.client.ApiException;
+
+/**
+ * Process wide registry of the background exports, one per test ID.
+ * The first engine acquiring a test starts an exporter on a fixed interval, the following ones only report its health.
+ * The following engines must use the same settings: an engine exporting the same test with other settings is rejected
+ * rather than silently reporting an export that does not follow its settings.
+ * Exports are reference counted like the clients: the exporter is stopped when the last engine releases it.
+ */
+final class ScheduledExport {
+
+	private static final Map<String, ScheduledExport> EXPORTS = new HashMap<String, ScheduledExport>();
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	private final TestExporter exporter;
+	private final String settingsKey;
+	private final ScheduledExecutorService executor;
+	private final int interval;
+	private int references;
+
+	//Health of the export, updated after each run
+	private int runCount;
+	private int failureCount;
+	private long lastSuccessTime;
+	private String lastStatusCode;
+	private String lastError;
+	private String lastRequest;
+	private String lastResponse;
+
+	private ScheduledExport(TestExporter exporter, String settingsKey, int interval) {
+		this.exporter = exporter;
+		this.settingsKey = settingsKey;
+		this.interval = interval;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ElementValuesFetcher.DaemonThreadFactory("NL-CloudWatchIntegration-export"));
+	}
+
+	/**
+	 * Get the export of the given test, starting it if needed.
+	 * @param interval delay between the end of an export and the start of the next one, in seconds
+	 * @throws IllegalArgumentException if the export of the test already runs with other settings
+	 */
+	static synchronized ScheduledExport acquire(String testId, int interval, String awsRegion, String awsAccessKey, String awsSecretKey, List<String> roleArns, String stsEndpoint, String nlWebHost, String nlWebToken, int nlWebConcurrency, List<TransactionMetric> transactionMetrics, List<Double> percentiles, boolean exportMonitors, int refreshExports) {
+		String settingsKey = TestExporter.key(testId, awsRegion, awsAccessKey, awsSecretKey, roleArns, stsEndpoint, nlWebHost, nlWebToken, nlWebConcurrency, transactionMetrics, percentiles, exportMonitors, refreshExports) + "|" + interval;
+		ScheduledExport export = EXPORTS.get(testId);
+		if (export != null && !export.settingsKey.equals(settingsKey)) {
+			throw new IllegalArgumentException("A background export of the test already runs with other settings: "
+					+ "all the actions exporting the test in the background must use the same AWS, NeoLoad Web and export settings.");
+		}
+		if (export == null) {
+			TestExporter exporter = new TestExporter(testId, awsRegion, awsAccessKey, awsSecretKey, roleArns, stsEndpoint, nlWebHost, nlWebToken, nlWebConcurrency, transactionMetrics, percentiles, exportMonitors, refreshExports);
+			export = new ScheduledExport(exporter, settingsKey, interval);
+			export.start();
+			EXPORTS.put(testId, export);
+		}
+		export.references++;
+		return export;
+	}
+
+	/**
+	 * Release the export of the given test, and stop it if it is not used anymore.
+	 */
+	static void release(String testId) {
+		ScheduledExport export;
+		synchronized (ScheduledExport.class) {
+			export = EXPORTS.get(testId);
+			if (export == null) {
+				return;
+			}
+			export.references--;
+			if (export.references > 0) {
+				return;
+			}
+			EXPORTS.remove(testId);
+		}
+		//Wait for the running export outside of the lock, so that the other tests are not blocked
+		export.stop();
+	}
+
+	private void start() {
+		//With a fixed delay, a slow export postpones the next one instead of overlapping it
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				runExport();
+			}
+		}, 0, interval, TimeUnit.SECONDS);
+	}
+
+	private void stop() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		exporter.close();
+	}
+
+	private void runExport() {
+		final StringBuilder requestBuilder = new StringBuilder();
+		final StringBuilder responseBuilder = new StringBuilder();
+		String statusCode = null;
+		String error = null;
+		try {
+			exporter.export(requestBuilder, responseBuilder);
+		} catch (AmazonServiceException e) {
+			statusCode = String.format("NL-CloudWatchIntegration-%s",e.getErrorCode());
+			error = e.getErrorMessage();
+			e.printStackTrace();
+		} catch (ApiException e) {
+			statusCode = String.format("NL-CloudWatchIntegration-%d",e.getCode());
+			error = e.getMessage();
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			//Any uncaught exception would cancel the next runs
+			statusCode = String.format("NL-CloudWatchIntegration-%s",e.getClass().getSimpleName());
+			error = String.valueOf(e.getMessage());
+			e.printStackTrace();
+		}
+		synchronized (this) {
+			runCount++;
+			lastRequest = requestBuilder.toString();
+			lastStatusCode = statusCode;
+			lastError = error;
+			if (error == null) {
+				lastSuccessTime = System.currentTimeMillis();
+				lastResponse = responseBuilder.toString();
+			} else {
+				failureCount++;
+			}
+		}
+	}
+
+	/**
+	 * Report the health of the export in the result of an execution: the result is in error if the last run failed.
+	 */
+	synchronized void report(SampleResult result) {
+		final StringBuilder health = new StringBuilder();
+		health.append(String.format("Export interval: %d sec\n",interval));
+		health.append(String.format("Runs: %d (%d failed)\n",runCount,failureCount));
+		if (lastSuccessTime > 0) {
+			health.append(String.format("Last success: %tc\n",new Date(lastSuccessTime)));
+		}
+		if (lastError != null) {
+			health.append(String.format("Last error: %s\n",lastError));
+		}
+		if (lastResponse != null) {
+			health.append(lastResponse);
+		}
+
+		if (lastRequest != null) {
+			result.setRequestContent(lastRequest);
+		}
+		result.setResponseContent(health.toString());
+		if (lastError != null) {
+			result.setError(true);
+			result.setStatusCode(lastStatusCode);
+		}
+	}
+}
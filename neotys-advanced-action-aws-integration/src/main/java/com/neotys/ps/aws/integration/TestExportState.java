@@ -0,0 +1,62 @@
+package com.neotys.ps.aws.integration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.swagger.client.model.CounterValues;
+import io.swagger.client.model.ElementValues;
+
+/**
+ * Process wide state of the last export of a test, shared by all the exporters of the test.
+ * The exports only send the values collected since the last export: when several virtual users export the same test,
+ * each one starts where the last export of any of them stopped, so that an interval is never published twice.
+ * The exports of a test are serialized on its state. States are reference counted like the clients.
+ */
+final class TestExportState {
+
+	private static final Map<String, TestExportState> STATES = new HashMap<String, TestExportState>();
+
+	private int references;
+	/** Values of each transaction at the last export. */
+	private final Map<String, ElementValues> transactionValues = new HashMap<String, ElementValues>();
+	/** Offset of the last exported point of each transaction. */
+	private final Map<String, Long> percentileOffsets = new HashMap<String, Long>();
+	/** Values of each monitor counter at the last export. */
+	private final Map<String, CounterValues> counterValues = new HashMap<String, CounterValues>();
+
+	private TestExportState() {
+	}
+
+	static synchronized TestExportState acquire(String testId) {
+		TestExportState state = STATES.get(testId);
+		if (state == null) {
+			state = new TestExportState();
+			STATES.put(testId, state);
+		}
+		state.references++;
+		return state;
+	}
+
+	static synchronized void release(String testId) {
+		TestExportState state = STATES.get(testId);
+		if (state == null) {
+			return;
+		}
+		state.references--;
+		if (state.references <= 0) {
+			STATES.remove(testId);
+		}
+	}
+
+	Map<String, ElementValues> getTransactionValues() {
+		return transactionValues;
+	}
+
+	Map<String, Long> getPercentileOffsets() {
+		return percentileOffsets;
+	}
+
+	Map<String, CounterValues> getCounterValues() {
+		return counterValues;
+	}
+}
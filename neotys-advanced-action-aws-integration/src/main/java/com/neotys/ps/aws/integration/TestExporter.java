@@ -0,0 +1,384 @@
+package com.neotys.ps.aws.integration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.google.common.base.Charsets;
+
+import io.swagger.client.ApiException;
+import io.swagger.client.api.ResultsApi;
+import io.swagger.client.model.ElementDefinition;
+import io.swagger.client.model.ElementValues;
+import io.swagger.client.model.TestDefinition;
+import io.swagger.client.model.TestStatistics;
+
+/**
+ * Exports the statistics of a NeoLoad Web test to CloudWatch.
+ * An exporter holds the clients, the publishers and the fetcher of one configuration, and is reused for each export.
+ * With a list of roles, the same datums are sent to the CloudWatch of each account, the accounts being published in parallel.
+ * Each account has its own queue: the datums left over by a failed flush of one account are only sent again to this account.
+ * The exporters of the same test share a TestExportState: the virtual users exporting the test take turns, each one exporting
+ * the interval since the last export of any of them.
+ */
+final class TestExporter {
+
+	private static final String AWS_NAMESPACE = "NeoLoad";
+
+	private final String testId;
+	private final String awsRegion;
+	private final List<String> cwClientKeys = new ArrayList<String>();
+	private final List<String> accounts = new ArrayList<String>();
+	private final List<MetricDataPublisher> publishers = new ArrayList<MetricDataPublisher>();
+	private final String nlWebClientKey;
+	private final ResultsApi nlWebClient;
+	private final MetricDataPublisher publisher;
+	private final ElementValuesFetcher fetcher;
+	private final List<TransactionMetric> transactionMetrics;
+	private final PercentileExporter percentileExporter;
+	private final MonitorExporter monitorExporter;
+	private final ExecutorService publishExecutor;
+	private final String transactionCacheKey;
+	private final ElementDefinitionCache transactionCache;
+	/** Values of the last export of the test by any exporter, the next export only sends what has been executed since then. */
+	private final TestExportState exportState;
+	private final int refreshExports;
+
+	/**
+	 * Create an exporter using the NL Web API client and the AWS clients shared with the other virtual users.
+	 * @param roleArns roles to assume with the access key, one per account to export to. When empty, the account of the access key is used
+	 * @param stsEndpoint endpoint of STS used to assume the roles, null or empty for the global endpoint
+	 * @param transactionMetrics fields of the values of the transactions to export
+	 * @param percentiles percentiles of the response times to export, between 0 and 100. When empty, only the averages are exported
+	 * @param exportMonitors true to export the monitor counters as well as the transactions
+	 * @param refreshExports number of exports between two reads of the lists of transactions and monitor counters
+	 */
+	TestExporter(String testId, String awsRegion, String awsAccessKey, String awsSecretKey, List<String> roleArns, String stsEndpoint, String nlWebHost, String nlWebToken, int nlWebConcurrency, List<TransactionMetric> transactionMetrics, List<Double> percentiles, boolean exportMonitors, int refreshExports) {
+		this.testId = testId;
+		this.awsRegion = awsRegion;
+		this.nlWebClientKey = ClientRegistry.nlWebKey(nlWebHost, nlWebToken);
+		this.nlWebClient = ClientRegistry.acquireResultsApi(nlWebClientKey, nlWebHost, nlWebToken);
+		for (String roleArn : roleArns.isEmpty() ? Collections.<String>singletonList(null) : roleArns) {
+			String cwClientKey = ClientRegistry.cloudWatchKey(awsRegion, awsAccessKey, awsSecretKey, roleArn, stsEndpoint);
+			AmazonCloudWatch cwClient = ClientRegistry.acquireCloudWatch(cwClientKey, awsRegion, awsAccessKey, awsSecretKey, roleArn, stsEndpoint);
+			cwClientKeys.add(cwClientKey);
+			accounts.add(roleArn == null ? null : ClientRegistry.getAccountId(roleArn));
+			publishers.add(new MetricDataPublisher(cwClient, AWS_NAMESPACE, AdaptiveRateLimiter.get(cwClientKey, MetricDataPublisher.DEFAULT_MAX_RATE)));
+		}
+		//With several accounts, the datums of a run are built once and moved to the publisher of each account before the flush
+		this.publisher = publishers.size() > 1 ? new MetricDataPublisher(AWS_NAMESPACE) : publishers.get(0);
+		this.transactionCacheKey = ElementDefinitionCache.key(nlWebClientKey, testId, "TRANSACTION");
+		this.transactionCache = ElementDefinitionCache.acquire(transactionCacheKey, testId, "TRANSACTION");
+		this.exportState = TestExportState.acquire(testId);
+		this.fetcher = new ElementValuesFetcher(nlWebConcurrency);
+		this.transactionMetrics = transactionMetrics;
+		this.percentileExporter = percentiles.isEmpty() ? null : new PercentileExporter(percentiles, fetcher, exportState.getPercentileOffsets());
+		this.monitorExporter = exportMonitors ? new MonitorExporter(fetcher, exportState.getCounterValues(), refreshExports) : null;
+		this.refreshExports = refreshExports;
+		this.publishExecutor = publishers.size() > 1 ? Executors.newFixedThreadPool(publishers.size(), new ElementValuesFetcher.DaemonThreadFactory("NL-CloudWatchIntegration-publish")) : null;
+	}
+
+	/**
+	 * Key identifying the configuration of an exporter: an exporter can be reused as long as the key does not change.
+	 */
+	static String key(String testId, String awsRegion, String awsAccessKey, String awsSecretKey, List<String> roleArns, String stsEndpoint, String nlWebHost, String nlWebToken, int nlWebConcurrency, List<TransactionMetric> transactionMetrics, List<Double> percentiles, boolean exportMonitors, int refreshExports) {
+		StringBuilder key = new StringBuilder(testId).append('|');
+		for (String roleArn : roleArns.isEmpty() ? Collections.<String>singletonList(null) : roleArns) {
+			key.append(ClientRegistry.cloudWatchKey(awsRegion, awsAccessKey, awsSecretKey, roleArn, stsEndpoint)).append(';');
+		}
+		return key.append('|').append(ClientRegistry.nlWebKey(nlWebHost, nlWebToken)).append('|').append(nlWebConcurrency).append('|').append(transactionMetrics).append('|').append(percentiles).append('|').append(exportMonitors).append('|').append(refreshExports).toString();
+	}
+
+	/**
+	 * Read the test statistics from NeoLoad Web and send them to CloudWatch.
+	 * @param requestBuilder receives the description of the test
+	 * @param responseBuilder receives the exported values
+	 */
+	void export(StringBuilder requestBuilder, StringBuilder responseBuilder) throws ApiException {
+		appendLineToStringBuilder(requestBuilder,String.format("AWS Region:%s",awsRegion));
+
+		//Get the Test Id
+		String basePath = nlWebClient.getApiClient().getBasePath().toString();
+		appendLineToStringBuilder(requestBuilder,String.format("Base URL:%s",basePath));
+		appendLineToStringBuilder(requestBuilder,String.format("Test Id:%s",testId));
+
+		//Initialise the dimensions for AWS filtering
+		Collection<Dimension> dimensions = new ArrayList<Dimension>();
+		addDimension(dimensions,"TestId",testId);
+
+		TestDefinition definition = nlWebClient.getTest(testId);
+		Double lgCount = new Double(definition.getLgCount());
+		String authorName = convertStringToASCII(definition.getAuthor());
+		String projectName = convertStringToASCII(definition.getProject());
+		String scenarioName = convertStringToASCII(definition.getScenario());
+		String testName = convertStringToASCII(definition.getName());
+
+		//Log the name of the test
+		appendLineToStringBuilder(requestBuilder,String.format("Name:%s",testName));
+		appendLineToStringBuilder(requestBuilder,String.format("Description:%s",definition.getDescription()));
+		appendLineToStringBuilder(requestBuilder,String.format("Author:%s",authorName));
+		appendLineToStringBuilder(requestBuilder,String.format("Termination Reason:%s",definition.getTerminationReason()));
+		appendLineToStringBuilder(requestBuilder,String.format("LG count:%s",lgCount.intValue()));
+		appendLineToStringBuilder(requestBuilder,String.format("Project Name:%s",projectName));
+		appendLineToStringBuilder(requestBuilder,String.format("Scenario Name:%s",scenarioName));
+		appendLineToStringBuilder(requestBuilder,String.format("Status:%s",definition.getStatus()));
+		appendLineToStringBuilder(requestBuilder,String.format("Quality Status:%s",definition.getQualityStatus()));
+		appendLineToStringBuilder(requestBuilder,String.format("Start Date:%tc",new Date(definition.getStartDate())));
+		appendLineToStringBuilder(requestBuilder,String.format("Duration:%tT",new Date(definition.getDuration())));
+
+		//Add the test properties to the dimensions
+		addDimension(dimensions,"Author",authorName);
+		addDimension(dimensions,"Project",projectName);
+		addDimension(dimensions,"Scenario",scenarioName);
+		addDimension(dimensions,"Test",testName);
+
+		//The same dimension objects are reused by all the exports of the test
+		final List<Dimension> baseDimensions = transactionCache.internBaseDimensions(dimensions);
+
+		//Send the number of LGs to AWS
+		AWSPutRequest(publisher, baseDimensions, "Number of LGs", lgCount, StandardUnit.Count);
+
+		addDimension(dimensions,"Type","Statistics");
+
+		//Get the latest test statistics
+		TestStatistics stats = nlWebClient.getTestStatistics(testId);
+		int countVU = stats.getLastVirtualUserCount();
+		float requestsPerSec = stats.getLastRequestCountPerSecond();
+
+		appendLineToStringBuilder(responseBuilder,String.format("Number of Virtual Users: %d",countVU));
+		appendLineToStringBuilder(responseBuilder,String.format("Requests per second: %f",requestsPerSec));
+
+		//Send the number of VUs to CloudWatch
+		AWSPutRequest(publisher, dimensions, "VU", (double) countVU, StandardUnit.Count);
+
+		//Send the requests per sec to CloudWatch
+		AWSPutRequest(publisher, dimensions, "Requests per second", (double) requestsPerSec, StandardUnit.CountSecond);
+
+		//The values are read and compared to the last export of the test in one go, so that another virtual user cannot export the same interval
+		synchronized (exportState) {
+			//Get the transaction list, with the dimensions of each transaction, from the cache of the test
+			List<ElementDefinitionCache.Element> transactions = transactionCache.getElements(nlWebClient, refreshExports);
+
+			//Get the statistics on all the transactions in parallel
+			List<ElementValues> transactionStats = fetcher.fetch(nlWebClient, testId, transactions);
+
+			//Print the transaction names and values
+			addTransactionDatums(publisher, baseDimensions, transactions, transactionStats, transactionMetrics, exportState.getTransactionValues(), responseBuilder);
+
+			//Add the percentiles of the response times, computed from the points of the transactions
+			if (percentileExporter != null) {
+				percentileExporter.addPercentileDatums(nlWebClient, testId, publisher, baseDimensions, transactions, responseBuilder);
+			}
+
+			//Add the monitor counters, with the dimensions of the test
+			if (monitorExporter != null) {
+				monitorExporter.addMonitorDatums(nlWebClient, testId, publisher, baseDimensions, responseBuilder);
+			}
+		}
+
+		//Send all the datums collected during this run
+		int datumCount = publisher.getPendingCount();
+		List<Integer> requestCounts = flushAll();
+		for (int i = 0; i < publishers.size(); i++) {
+			String account = accounts.get(i) == null ? "" : " " + accounts.get(i);
+			appendLineToStringBuilder(responseBuilder,String.format("CloudWatch%s: %d datums sent in %d requests",account,datumCount,requestCounts.get(i)));
+			AdaptiveRateLimiter rateLimiter = publishers.get(i).getRateLimiter();
+			appendLineToStringBuilder(responseBuilder,String.format("PutMetricData%s rate: %.1f requests per second (maximum %.1f), %d requests throttled",account,rateLimiter.getRate(),rateLimiter.getMaxRate(),rateLimiter.getThrottledCount()));
+		}
+	}
+
+	/**
+	 * Move the datums of the run to the publisher of each account, and flush all of them in parallel.
+	 * @return the number of requests sent by each publisher
+	 */
+	private List<Integer> flushAll() {
+		if (publishExecutor == null) {
+			return Collections.singletonList(publisher.flush());
+		}
+		//All the accounts get the datums before any flush starts
+		publisher.movePendingTo(publishers);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>(publishers.size());
+		for (final MetricDataPublisher accountPublisher : publishers) {
+			futures.add(publishExecutor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return accountPublisher.flush();
+				}
+			}));
+		}
+
+		//Wait for all the accounts before reporting the first error, so that the next flush does not overlap this one
+		List<Integer> requestCounts = new ArrayList<Integer>(futures.size());
+		RuntimeException error = null;
+		for (Future<Integer> future : futures) {
+			try {
+				requestCounts.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AmazonClientException(e);
+			} catch (ExecutionException e) {
+				if (error == null) {
+					error = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new AmazonClientException(e.getCause());
+				}
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+		return requestCounts;
+	}
+
+	/**
+	 * Send the datums left over by an interrupted export and release the clients.
+	 */
+	void close() {
+		fetcher.shutdown();
+
+		//Datums of an interrupted run have not been moved to the accounts yet
+		if (publishExecutor != null && publisher.getPendingCount() > 0) {
+			publisher.movePendingTo(publishers);
+		}
+		for (MetricDataPublisher accountPublisher : publishers) {
+			if (accountPublisher.getPendingCount() > 0) {
+				try {
+					accountPublisher.flush();
+				} catch (AmazonClientException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		if (publishExecutor != null) {
+			publishExecutor.shutdownNow();
+		}
+
+		ElementDefinitionCache.release(transactionCacheKey);
+		TestExportState.release(testId);
+		ClientRegistry.release(nlWebClientKey);
+		for (String cwClientKey : cwClientKeys) {
+			ClientRegistry.release(cwClientKey);
+		}
+	}
+
+	/**
+	 * Queue the datums of the given metrics for each transaction executed since the last export, with the dimensions of its path.
+	 * The datums of a transaction are cloned from the templates of the element, share the same dimension list and are sent in the same request.
+	 * @param metrics fields of the values to export
+	 * @param lastValues values of each element at the last export, updated with the given values
+	 */
+	static void addTransactionDatums(MetricDataPublisher publisher, List<Dimension> baseDimensions, List<ElementDefinitionCache.Element> transactions, List<ElementValues> transactionStats, List<TransactionMetric> metrics, Map<String, ElementValues> lastValues, StringBuilder responseBuilder) {
+		List<MetricDatum> datums = new ArrayList<MetricDatum>(metrics.size());
+		//Only the values are formatted, the rest of the lines is built once per element and metric
+		Formatter responseFormatter = new Formatter(responseBuilder);
+		int unchangedCount = 0;
+		for (int i=0 ; i < transactions.size(); i++) {
+			//Get the statistics on the transaction executed since the last export
+			ElementValues transactionStat = transactionStats.get(i);
+			ElementValues previousStat = lastValues.put(transactions.get(i).getId(), transactionStat);
+			if (!TransactionMetric.isExecuted(previousStat, transactionStat)) {
+				unchangedCount++;
+				continue;
+			}
+
+			//The datum templates built for the transaction at the first export of the test
+			ElementDefinitionCache.Element transaction = transactions.get(i);
+
+			//All the metrics of the transaction are read at the same time
+			Date timestamp = new Date();
+			datums.clear();
+			for (TransactionMetric metric : metrics) {
+				Double value = metric.getValue(previousStat, transactionStat);
+				if (value == null) {
+					continue;
+				}
+				responseBuilder.append(transaction.getLabel(metric));
+				responseFormatter.format("%f", value);
+				responseBuilder.append(' ').append(metric.getUnit()).append('\n');
+				MetricDatum datum = transaction.newDatum(baseDimensions, metric);
+				datum.setValue(value);
+				datum.setTimestamp(timestamp);
+				datums.add(datum);
+			}
+			publisher.addGroup(datums);
+		}
+		if (unchangedCount > 0) {
+			appendLineToStringBuilder(responseBuilder,String.format("%d transactions not executed since the last export",unchangedCount));
+		}
+	}
+
+	/**
+	 * Add the dimensions identifying a transaction: its type and its path.
+	 * @return the display name of the transaction
+	 */
+	static String addTransactionDimensions(Collection<Dimension> dimensions, ElementDefinition transaction) {
+		//Add a new dimension
+		addDimension(dimensions,"Type","Transaction");
+
+		//If the current transaction is the all transactions
+		if (transaction.getType().equals("ALL_TRANSACTIONS")) {
+			addDimension(dimensions,"Transaction Name","All");
+			return "All transactions";
+		}
+
+		//Get the name of the transaction
+		String transactionName = transaction.getName();
+		//Get the path
+		List<String> path = transaction.getPath();
+
+		//Get the context
+		String scriptName = path.get(0);
+		String baseContainer = path.get(1);
+
+		StringBuilder transactionPath = new StringBuilder();
+		for (String s : path) {
+			transactionPath.append(s);
+			transactionPath.append("/");
+		}
+
+		//Shave the last /
+		transactionPath.deleteCharAt(transactionPath.length()-1);
+
+		//Add the path to the dimensions
+		addDimension(dimensions,"Full Path",transactionPath.toString());
+		addDimension(dimensions,"Script",scriptName);
+		addDimension(dimensions,"Action",baseContainer);
+		addDimension(dimensions,"TransactionName",transactionName);
+		return transactionPath.toString();
+	}
+
+	private static void appendLineToStringBuilder(final StringBuilder sb, final String line){
+		sb.append(line).append("\n");
+	}
+
+	private static String convertStringToASCII(String source) {
+		String s = source;
+		byte[] b = s.getBytes(Charsets.US_ASCII);
+		return new String (b);
+
+	}
+
+	private static void addDimension(java.util.Collection<Dimension> dimensions, String dimensionName, String dimensionValue) {
+		dimensions.add(
+				new Dimension()
+				.withName(dimensionName)
+				.withValue(dimensionValue));
+	}
+
+	private static void AWSPutRequest(MetricDataPublisher publisher, java.util.Collection<Dimension> dimensions, String metricName, Double value, StandardUnit unit) {
+		//The datum is sent with the other datums of the run when the publisher is flushed
+		publisher.add(dimensions, metricName, value, unit);
+	}
+}
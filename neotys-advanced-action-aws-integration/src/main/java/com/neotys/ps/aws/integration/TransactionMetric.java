@@ -0,0 +1,237 @@
+package com.neotys.ps.aws.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+import io.swagger.client.model.ElementValues;
+
+/**
+ * The fields of ElementValues that can be exported as CloudWatch metrics, named like the fields of the NeoLoad Web API.
+ * Totals are exported as the difference since the last export, averages as the average of the interval,
+ * and the other fields (minimum, maximum, rates) as read from NeoLoad Web: NeoLoad Web only gives them since the start
+ * of the test, so they are not the values of the interval. An element that has not been executed since the last export
+ * is not exported at all, so a gauge is only sent again when the interval has executions.
+ */
+enum TransactionMetric {
+
+	COUNT("count", "Count", StandardUnit.Count, Kind.TOTAL, 1) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getCount();
+		}
+	},
+	ELEMENT_PER_SECOND("elementPerSecond", "Transactions per second", StandardUnit.CountSecond, Kind.GAUGE, 1) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getElementPerSecond();
+		}
+	},
+	MIN_DURATION("minDuration", "Min response time", StandardUnit.Seconds, Kind.GAUGE, 1000) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getMinDuration();
+		}
+	},
+	MAX_DURATION("maxDuration", "Max response time", StandardUnit.Seconds, Kind.GAUGE, 1000) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getMaxDuration();
+		}
+	},
+	SUM_DURATION("sumDuration", "Total response time", StandardUnit.Seconds, Kind.TOTAL, 1000) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getSumDuration();
+		}
+	},
+	AVG_DURATION("avgDuration", "Response time", StandardUnit.Seconds, Kind.AVERAGE, 1000) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getSumDuration();
+		}
+
+		@Override
+		Number getAverage(ElementValues values) {
+			return values.getAvgDuration();
+		}
+	},
+	MIN_TTFB("minTTFB", "Min TTFB", StandardUnit.Seconds, Kind.GAUGE, 1000) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getMinTTFB();
+		}
+	},
+	MAX_TTFB("maxTTFB", "Max TTFB", StandardUnit.Seconds, Kind.GAUGE, 1000) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getMaxTTFB();
+		}
+	},
+	SUM_TTFB("sumTTFB", "Total TTFB", StandardUnit.Seconds, Kind.TOTAL, 1000) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getSumTTFB();
+		}
+	},
+	AVG_TTFB("avgTTFB", "TTFB", StandardUnit.Seconds, Kind.AVERAGE, 1000) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getSumTTFB();
+		}
+
+		@Override
+		Number getAverage(ElementValues values) {
+			return values.getAvgTTFB();
+		}
+	},
+	SUM_DOWNLOADED_BYTES("sumDownloadedBytes", "Downloaded bytes", StandardUnit.Bytes, Kind.TOTAL, 1) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getSumDownloadedBytes();
+		}
+	},
+	DOWNLOADED_BYTES_PER_SECOND("downloadedBytesPerSecond", "Downloaded bytes per second", StandardUnit.BytesSecond, Kind.GAUGE, 1) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getDownloadedBytesPerSecond();
+		}
+	},
+	SUCCESS_COUNT("successCount", "Successes", StandardUnit.Count, Kind.TOTAL, 1) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getSuccessCount();
+		}
+	},
+	SUCCESS_PER_SECOND("successPerSecond", "Successes per second", StandardUnit.CountSecond, Kind.GAUGE, 1) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getSuccessPerSecond();
+		}
+	},
+	SUCCESS_RATE("successRate", "Success rate", StandardUnit.Percent, Kind.GAUGE, 1) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getSuccessRate();
+		}
+	},
+	FAILURE_COUNT("failureCount", "Failures", StandardUnit.Count, Kind.TOTAL, 1) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getFailureCount();
+		}
+	},
+	FAILURE_PER_SECOND("failurePerSecond", "Failures per second", StandardUnit.CountSecond, Kind.GAUGE, 1) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getFailurePerSecond();
+		}
+	},
+	FAILURE_RATE("failureRate", "Failure rate", StandardUnit.Percent, Kind.GAUGE, 1) {
+		@Override
+		Number get(ElementValues values) {
+			return values.getFailureRate();
+		}
+	};
+
+	private enum Kind {
+		/** Value since the start of the test, exported as read from NeoLoad Web. */
+		GAUGE,
+		/** Total since the start of the test, exported as the difference since the last export. */
+		TOTAL,
+		/** Average since the start of the test, exported as the average of the executions since the last export. */
+		AVERAGE
+	}
+
+	private final String fieldName;
+	private final String metricName;
+	private final StandardUnit unit;
+	private final Kind kind;
+	private final double divisor;
+
+	private TransactionMetric(String fieldName, String metricName, StandardUnit unit, Kind kind, double divisor) {
+		this.fieldName = fieldName;
+		this.metricName = metricName;
+		this.unit = unit;
+		this.kind = kind;
+		this.divisor = divisor;
+	}
+
+	/**
+	 * @return the value of the field, the total for the averages
+	 */
+	abstract Number get(ElementValues values);
+
+	Number getAverage(ElementValues values) {
+		return null;
+	}
+
+	String getFieldName() {
+		return fieldName;
+	}
+
+	String getMetricName() {
+		return metricName;
+	}
+
+	StandardUnit getUnit() {
+		return unit;
+	}
+
+	/**
+	 * Get the value to export for the executions between two reads of the values of an element, in the unit of the metric.
+	 * @param previous values at the last export, null for the first export
+	 * @return the value, or null if it is not available
+	 */
+	Double getValue(ElementValues previous, ElementValues current) {
+		Number value = get(current);
+		if (kind == Kind.GAUGE) {
+			return value == null ? null : value.doubleValue() / divisor;
+		}
+		Long previousCount = previous == null ? null : previous.getCount();
+		Number previousValue = previous == null ? null : get(previous);
+		Double intervalValue = kind == Kind.TOTAL
+				? IntervalValues.getTotal(previousCount, previousValue, current.getCount(), value)
+				: IntervalValues.getAverage(previousCount, previousValue, current.getCount(), value, getAverage(current));
+		return intervalValue == null ? null : intervalValue / divisor;
+	}
+
+	/**
+	 * @return true if the element has been executed between two reads of its values, or if it cannot be known
+	 */
+	static boolean isExecuted(ElementValues previous, ElementValues current) {
+		Long executions = IntervalValues.getCount(previous == null ? null : previous.getCount(), current.getCount());
+		return executions == null || executions > 0;
+	}
+
+	/**
+	 * @param fieldNames comma separated list of field names of ElementValues, case insensitive
+	 * @throws IllegalArgumentException if a name is not a field of ElementValues
+	 */
+	static List<TransactionMetric> parse(String fieldNames) {
+		List<TransactionMetric> metrics = new ArrayList<TransactionMetric>();
+		for (String fieldName : fieldNames.split(",")) {
+			if (fieldName.trim().isEmpty()) {
+				continue;
+			}
+			TransactionMetric metric = forFieldName(fieldName.trim());
+			if (metric == null) {
+				throw new IllegalArgumentException("Unknown transaction metric: " + fieldName.trim());
+			}
+			if (!metrics.contains(metric)) {
+				metrics.add(metric);
+			}
+		}
+		return metrics;
+	}
+
+	private static TransactionMetric forFieldName(String fieldName) {
+		for (TransactionMetric metric : values()) {
+			if (metric.fieldName.equalsIgnoreCase(fieldName)) {
+				return metric;
+			}
+		}
+		return null;
+	}
+}
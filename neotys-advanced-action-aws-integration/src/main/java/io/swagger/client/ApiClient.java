@@ -13,6 +13,7 @@
 
 package io.swagger.client;
 
+import com.google.gson.JsonIOException;
 import com.squareup.okhttp.Call;
 import com.squareup.okhttp.Callback;
 import com.squareup.okhttp.OkHttpClient;
@@ -48,6 +49,7 @@ import java.net.URLConnection;
 import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 
 import java.security.GeneralSecurityException;
@@ -838,6 +840,17 @@ public class ApiClient {
             return (T) downloadFileFromResponse(response);
         }
 
+        String contentType = response.headers().get("Content-Type");
+        if (contentType == null) {
+            // ensuring a default content type
+            contentType = "application/json";
+        }
+        if (isJsonMime(contentType) && !returnType.equals(String.class) && !returnType.equals(Date.class)) {
+            // Parse JSON straight from the response stream instead of buffering the whole body in a String.
+            // String and Date keep the String path below for their fallback on non-JSON bodies.
+            return deserializeStream(response, returnType);
+        }
+
         String respBody;
         try {
             if (response.body() != null)
@@ -852,11 +865,6 @@ public class ApiClient {
             return null;
         }
 
-        String contentType = response.headers().get("Content-Type");
-        if (contentType == null) {
-            // ensuring a default content type
-            contentType = "application/json";
-        }
         if (isJsonMime(contentType)) {
             return json.deserialize(respBody, returnType);
         } else if (returnType.equals(String.class)) {
@@ -871,6 +879,38 @@ public class ApiClient {
         }
     }
 
+    /**
+     * Deserialize a JSON response body to Java object, reading it as a stream.
+     *
+     * @param <T> Type
+     * @param response HTTP response
+     * @param returnType The type of the Java object
+     * @return The deserialized Java object, null for an empty body
+     * @throws ApiException If fail to read the response body
+     */
+    private <T> T deserializeStream(Response response, Type returnType) throws ApiException {
+        if (response.body() == null) {
+            return null;
+        }
+        Reader reader = null;
+        try {
+            reader = response.body().charStream();
+            return json.deserialize(reader, returnType);
+        } catch (IOException e) {
+            throw new ApiException(e);
+        } catch (JsonIOException e) {
+            throw new ApiException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // the body has already been read
+                }
+            }
+        }
+    }
+
     /**
      * Serialize the given Java object into request body according to the object's
      * class and the request Content-Type.
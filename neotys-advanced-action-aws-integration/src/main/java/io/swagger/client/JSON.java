@@ -25,12 +25,20 @@ import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
+import io.swagger.client.model.PointSeries;
+import io.swagger.client.model.PointTable;
+
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
 import java.lang.reflect.Type;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
@@ -52,6 +60,8 @@ public class JSON {
             .registerTypeAdapter(Date.class, new DateAdapter(apiClient))
             .registerTypeAdapter(DateTime.class, new DateTimeTypeAdapter())
             .registerTypeAdapter(LocalDate.class, new LocalDateTypeAdapter())
+            .registerTypeAdapter(PointSeries.class, new PointSeriesTypeAdapter())
+            .registerTypeAdapter(PointTable.class, new PointTableTypeAdapter())
             .create();
     }
 
@@ -113,6 +123,26 @@ public class JSON {
             else throw(e);
         }
     }
+
+    /**
+     * Deserialize the JSON read from the given reader to Java object, without buffering it in a String.
+     *
+     * @param <T> Type
+     * @param reader The reader of the JSON content
+     * @param returnType The type to deserialize into
+     * @return The deserialized Java object, null for an empty content
+     */
+    public <T> T deserialize(Reader reader, Type returnType) {
+        if (apiClient.isLenientOnJson()) {
+            JsonReader jsonReader = new JsonReader(reader);
+            // see https://google-gson.googlecode.com/svn/trunk/gson/docs/javadocs/com/google/gson/stream/JsonReader.html#setLenient(boolean)
+            jsonReader.setLenient(true);
+            return gson.fromJson(jsonReader, returnType);
+        } else {
+            // Like the String path: Gson parses a JsonReader leniently, only fromJson(Reader) checks that the whole document is consumed
+            return gson.fromJson(reader, returnType);
+        }
+    }
 }
 
 class DateAdapter implements JsonSerializer<Date>, JsonDeserializer<Date> {
@@ -223,3 +253,171 @@ class LocalDateTypeAdapter extends TypeAdapter<LocalDate> {
         }
     }
 }
+
+/**
+ * Gson TypeAdapter reading a Points JSON array straight into the primitive arrays of a PointSeries
+ */
+class PointSeriesTypeAdapter extends TypeAdapter<PointSeries> {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    @Override
+    public void write(JsonWriter out, PointSeries series) throws IOException {
+        if (series == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        PointSeries.Cursor cursor = series.cursor();
+        while (cursor.next()) {
+            out.beginObject();
+            out.name("offset").value(cursor.offset());
+            out.name("value");
+            if (Float.isNaN(cursor.value())) {
+                out.nullValue();
+            } else {
+                out.value(cursor.value());
+            }
+            out.endObject();
+        }
+        out.endArray();
+    }
+
+    @Override
+    public PointSeries read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        long[] offsets = new long[INITIAL_CAPACITY];
+        float[] values = new float[INITIAL_CAPACITY];
+        int size = 0;
+
+        in.beginArray();
+        while (in.hasNext()) {
+            long offset = 0;
+            boolean hasOffset = false;
+            float value = Float.NaN;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if ("offset".equals(name)) {
+                    offset = in.nextLong();
+                    hasOffset = true;
+                } else if ("value".equals(name)) {
+                    value = (float) in.nextDouble();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            // A point without offset cannot be placed on the time line
+            if (!hasOffset) {
+                continue;
+            }
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            offsets[size] = offset;
+            values[size] = value;
+            size++;
+        }
+        in.endArray();
+
+        return new PointSeries(offsets, values, size);
+    }
+}
+
+/**
+ * Gson TypeAdapter reading the points of several statistics straight into the primitive arrays of a PointTable.
+ * Each point gives its offset, and the value of each statistic under the name of the statistic.
+ */
+class PointTableTypeAdapter extends TypeAdapter<PointTable> {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    @Override
+    public void write(JsonWriter out, PointTable table) throws IOException {
+        if (table == null) {
+            out.nullValue();
+            return;
+        }
+        Map<String, PointSeries> series = new LinkedHashMap<String, PointSeries>();
+        for (String statistic : table.getStatistics()) {
+            series.put(statistic, table.getSeries(statistic));
+        }
+        out.beginArray();
+        for (int i = 0; i < table.size(); i++) {
+            out.beginObject();
+            out.name("offset").value(table.getOffset(i));
+            for (Map.Entry<String, PointSeries> statistic : series.entrySet()) {
+                float value = statistic.getValue().getValue(i);
+                if (!Float.isNaN(value)) {
+                    out.name(statistic.getKey()).value(value);
+                }
+            }
+            out.endObject();
+        }
+        out.endArray();
+    }
+
+    @Override
+    public PointTable read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        long[] offsets = new long[INITIAL_CAPACITY];
+        Map<String, float[]> values = new LinkedHashMap<String, float[]>();
+        int size = 0;
+
+        in.beginArray();
+        while (in.hasNext()) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                for (Map.Entry<String, float[]> statistic : values.entrySet()) {
+                    statistic.setValue(Arrays.copyOf(statistic.getValue(), size * 2));
+                }
+            }
+            for (float[] statisticValues : values.values()) {
+                statisticValues[size] = Float.NaN;
+            }
+            boolean hasOffset = false;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                JsonToken token = in.peek();
+                if ("offset".equals(name) && token == JsonToken.NUMBER) {
+                    offsets[size] = in.nextLong();
+                    hasOffset = true;
+                } else if (token == JsonToken.NUMBER) {
+                    float[] statisticValues = values.get(name);
+                    if (statisticValues == null) {
+                        // A statistic seen for the first time has no value for the previous points
+                        statisticValues = new float[offsets.length];
+                        Arrays.fill(statisticValues, Float.NaN);
+                        values.put(name, statisticValues);
+                    }
+                    statisticValues[size] = (float) in.nextDouble();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            // A point without offset cannot be placed on the time line: its values are overwritten by the next point
+            if (hasOffset) {
+                size++;
+            }
+        }
+        in.endArray();
+
+        return new PointTable(offsets, values, size);
+    }
+}
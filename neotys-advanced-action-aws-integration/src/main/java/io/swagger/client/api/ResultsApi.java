@@ -29,9 +29,12 @@ import java.io.IOException;
 
 import io.swagger.client.model.ArrayOfTestDefinition;
 import io.swagger.client.model.CounterDefinition;
+import io.swagger.client.model.CounterDefinitions;
 import io.swagger.client.model.CounterValues;
 import io.swagger.client.model.ElementDefinitions;
 import io.swagger.client.model.ElementValues;
+import io.swagger.client.model.PointSeries;
+import io.swagger.client.model.PointTable;
 import io.swagger.client.model.Points;
 import io.swagger.client.model.TestDefinition;
 import io.swagger.client.model.TestStatistics;
@@ -438,6 +441,37 @@ public class ResultsApi {
         return apiClient.execute(call, localVarReturnType);
     }
 
+    /**
+     * Test elements points since the beginning of the test, as primitive arrays
+     * Same as getTestElementsPoints, but the points are decoded straight into a PointSeries
+     * instead of one Point object per point.
+     * @param testId Unique identifier representing a specific test. (required)
+     * @param elementId Unique identifier representing a specific element. (required)
+     * @param statistics Comma separated list of statistics to get. Available statistics are: AVG_DURATION, MIN_DURATION, MAX_DURATION, COUNT, THROUGHPUT, ELEMENTS_PER_SECOND, ERRORS, ERRORS_PER_SECOND, ERROR_RATE, AVG_TTFB, MIN_TTFB, MAX_TTFB (required)
+     * @return PointSeries
+     * @throws ApiException If fail to call the API, e.g. server error or cannot deserialize the response body
+     */
+    public PointSeries getTestElementsPointSeries(String testId, String elementId, String statistics) throws ApiException {
+        com.squareup.okhttp.Call call = getTestElementsPointsValidateBeforeCall(testId, elementId, statistics, null, null);
+        ApiResponse<PointSeries> resp = apiClient.execute(call, PointSeries.class);
+        return resp.getData();
+    }
+
+    /**
+     * Test elements points of several statistics since the beginning of the test, as primitive arrays
+     * Same as getTestElementsPointSeries, but the points of all the statistics are read in a single request.
+     * @param testId Unique identifier representing a specific test. (required)
+     * @param elementId Unique identifier representing a specific element. (required)
+     * @param statistics Comma separated list of statistics to get. Available statistics are: AVG_DURATION, MIN_DURATION, MAX_DURATION, COUNT, THROUGHPUT, ELEMENTS_PER_SECOND, ERRORS, ERRORS_PER_SECOND, ERROR_RATE, AVG_TTFB, MIN_TTFB, MAX_TTFB (required)
+     * @return PointTable
+     * @throws ApiException If fail to call the API, e.g. server error or cannot deserialize the response body
+     */
+    public PointTable getTestElementsPointTable(String testId, String elementId, String statistics) throws ApiException {
+        com.squareup.okhttp.Call call = getTestElementsPointsValidateBeforeCall(testId, elementId, statistics, null, null);
+        ApiResponse<PointTable> resp = apiClient.execute(call, PointTable.class);
+        return resp.getData();
+    }
+
     /**
      * Test elements points since the beginning of the test (asynchronously)
      * Provide all the ponits of a test element for the selected statistics.
@@ -700,6 +734,20 @@ public class ResultsApi {
         return apiClient.execute(call, localVarReturnType);
     }
 
+    /**
+     * Test monitors, as a list
+     * Same as getTestMonitors, but the response is read as the list of counters actually returned by the service,
+     * instead of the single CounterDefinition declared by the specification.
+     * @param testId Unique identifier representing a specific test. (required)
+     * @return CounterDefinitions
+     * @throws ApiException If fail to call the API, e.g. server error or cannot deserialize the response body
+     */
+    public CounterDefinitions getTestMonitorDefinitions(String testId) throws ApiException {
+        com.squareup.okhttp.Call call = getTestMonitorsValidateBeforeCall(testId, null, null);
+        ApiResponse<CounterDefinitions> resp = apiClient.execute(call, CounterDefinitions.class);
+        return resp.getData();
+    }
+
     /**
      * Test monitors (asynchronously)
      * Provide all the tests counters of all monitors for a test result.
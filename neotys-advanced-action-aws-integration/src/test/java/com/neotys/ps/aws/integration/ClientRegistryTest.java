@@ -0,0 +1,57 @@
+package com.neotys.ps.aws.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+
+public class ClientRegistryTest {
+
+	private static final String ROLE_ARN = "arn:aws:iam::123456789012:role/NeoLoad";
+
+	@Test
+	public void shouldGetTheAccountIdOfARole() {
+		assertEquals("123456789012", ClientRegistry.getAccountId(ROLE_ARN));
+		assertEquals("210987654321", ClientRegistry.getAccountId("arn:aws-cn:iam::210987654321:role/path/NeoLoad"));
+		assertEquals("NeoLoad", ClientRegistry.getAccountId("NeoLoad"));
+	}
+
+	@Test
+	public void shouldSignTheRequestsForTheRegionOfTheEndpoint() {
+		assertEquals("eu-west-1", ClientRegistry.getSigningRegion("https://sts.eu-west-1.amazonaws.com", "sts"));
+		assertEquals("us-east-1", ClientRegistry.getSigningRegion("https://sts.amazonaws.com", "sts"));
+		assertEquals("cn-north-1", ClientRegistry.getSigningRegion("https://sts.cn-north-1.amazonaws.com.cn/", "sts"));
+		assertEquals("ap-southeast-2", ClientRegistry.getSigningRegion("sts.ap-southeast-2.amazonaws.com", "sts"));
+	}
+
+	@Test
+	public void shouldKeyTheClientsByRoleAndStsEndpoint() {
+		String accessKeyClient = ClientRegistry.cloudWatchKey("eu-west-1", "AK", "SK", null, "https://sts.eu-west-1.amazonaws.com");
+		String roleClient = ClientRegistry.cloudWatchKey("eu-west-1", "AK", "SK", ROLE_ARN, null);
+		String regionalStsClient = ClientRegistry.cloudWatchKey("eu-west-1", "AK", "SK", ROLE_ARN, "https://sts.eu-west-1.amazonaws.com");
+
+		//The STS endpoint is only used with a role
+		assertEquals(ClientRegistry.cloudWatchKey("eu-west-1", "AK", "SK", null, null), accessKeyClient);
+		assertFalse(roleClient.equals(accessKeyClient));
+		assertFalse(roleClient.equals(regionalStsClient));
+	}
+
+	@Test
+	public void shouldShareTheClientOfARoleWithARegionalStsEndpoint() {
+		String stsEndpoint = "https://sts.eu-west-1.amazonaws.com";
+		String key = ClientRegistry.cloudWatchKey("eu-west-1", "AK", "SK", ROLE_ARN, stsEndpoint);
+		//The role is only assumed when the first request is signed
+		AmazonCloudWatch client = ClientRegistry.acquireCloudWatch(key, "eu-west-1", "AK", "SK", ROLE_ARN, stsEndpoint);
+		try {
+			assertNotNull(client);
+			assertSame(client, ClientRegistry.acquireCloudWatch(key, "eu-west-1", "AK", "SK", ROLE_ARN, stsEndpoint));
+			ClientRegistry.release(key);
+		} finally {
+			ClientRegistry.release(key);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.neotys.ps.aws.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DurationSketchTest {
+
+	@Test
+	public void shouldReturnQuantilesWithinTheRelativeAccuracy() {
+		DurationSketch sketch = new DurationSketch();
+		for (int duration = 1; duration <= 10000; duration++) {
+			sketch.record(duration, 1);
+		}
+
+		assertEquals(10000, sketch.getCount());
+		assertEquals(5000, sketch.getQuantile(0.5), 5000 * DurationSketch.RELATIVE_ACCURACY);
+		assertEquals(9000, sketch.getQuantile(0.9), 9000 * DurationSketch.RELATIVE_ACCURACY);
+		assertEquals(9900, sketch.getQuantile(0.99), 9900 * DurationSketch.RELATIVE_ACCURACY);
+		assertTrue(sketch.getQuantile(1) <= 10000);
+	}
+
+	@Test
+	public void shouldWeightTheRecordedDurations() {
+		DurationSketch sketch = new DurationSketch();
+		sketch.record(100, 98);
+		sketch.record(2000, 2);
+
+		assertEquals(100, sketch.getQuantile(0.9), 100 * DurationSketch.RELATIVE_ACCURACY);
+		assertEquals(2000, sketch.getQuantile(0.99), 2000 * DurationSketch.RELATIVE_ACCURACY);
+
+		sketch.reset();
+		assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+	}
+
+	@Test
+	public void shouldGiveOneValuePerBucketOfTheDistribution() {
+		DurationSketch sketch = new DurationSketch();
+		sketch.record(100, 98);
+		sketch.record(2000, 2);
+		List<Double> values = new ArrayList<Double>();
+		List<Double> counts = new ArrayList<Double>();
+
+		sketch.getDistribution(150, 0.001, values, counts);
+
+		assertEquals(2, values.size());
+		assertEquals(0.1, values.get(0), 0.1 * DurationSketch.RELATIVE_ACCURACY);
+		assertEquals(2, values.get(1), 2 * DurationSketch.RELATIVE_ACCURACY);
+		assertEquals(98d, counts.get(0), 0);
+		assertEquals(2d, counts.get(1), 0);
+	}
+
+	@Test
+	public void shouldMergeTheBucketsBeyondTheMaximumNumberOfValues() {
+		DurationSketch sketch = new DurationSketch();
+		for (int duration = 1; duration <= 10000; duration++) {
+			sketch.record(duration, 1);
+		}
+		List<Double> values = new ArrayList<Double>();
+		List<Double> counts = new ArrayList<Double>();
+
+		sketch.getDistribution(150, 1, values, counts);
+
+		assertTrue(values.size() <= 150);
+		double total = 0;
+		for (int i = 0; i < values.size(); i++) {
+			total += counts.get(i);
+			assertTrue(i == 0 || values.get(i) > values.get(i - 1));
+		}
+		assertEquals(10000d, total, 0);
+		assertTrue(values.get(values.size() - 1) <= 10000);
+	}
+}
@@ -0,0 +1,111 @@
+package com.neotys.ps.aws.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+
+import io.swagger.client.ApiException;
+import io.swagger.client.api.ResultsApi;
+import io.swagger.client.model.ElementDefinition;
+import io.swagger.client.model.ElementDefinitions;
+
+public class ElementDefinitionCacheTest {
+
+	/**
+	 * Results of a test whose elements are set by the test, counting the reads of the elements.
+	 */
+	private static final class CountingResultsApi extends ResultsApi {
+		private final ElementDefinitions elements = new ElementDefinitions();
+		private int reads;
+
+		@Override
+		public ElementDefinitions getTestElements(String testId, String category) {
+			reads++;
+			return elements;
+		}
+	}
+
+	@Test
+	public void shouldKeepTheKnownElementsOnRefresh() throws ApiException {
+		String key = ElementDefinitionCache.key("nlweb", "test", "TRANSACTION");
+		ElementDefinitionCache cache = ElementDefinitionCache.acquire(key, "test", "TRANSACTION");
+		try {
+			cache.refresh(Arrays.asList(transaction("1", "Login")));
+			ElementDefinitionCache.Element login = cache.getElements(null, ElementDefinitionCache.DEFAULT_REFRESH_EXPORTS).get(0);
+
+			cache.refresh(Arrays.asList(transaction("1", "Login"), transaction("2", "Logout")));
+			List<ElementDefinitionCache.Element> elements = cache.getElements(null, ElementDefinitionCache.DEFAULT_REFRESH_EXPORTS);
+
+			assertEquals(2, elements.size());
+			assertSame(login, elements.get(0));
+			assertEquals("Script/Actions/Logout", elements.get(1).getPath());
+			assertEquals(5, elements.get(1).getDimensions().size());
+		} finally {
+			ElementDefinitionCache.release(key);
+		}
+	}
+
+	@Test
+	public void shouldReadTheElementsAgainEveryRefreshExports() throws ApiException {
+		String key = ElementDefinitionCache.key("nlweb", "test", "TRANSACTION");
+		ElementDefinitionCache cache = ElementDefinitionCache.acquire(key, "test", "TRANSACTION");
+		try {
+			CountingResultsApi client = new CountingResultsApi();
+			//No element yet: read again at each export
+			assertEquals(0, cache.getElements(client, 3).size());
+			assertEquals(0, cache.getElements(client, 3).size());
+			assertEquals(2, client.reads);
+
+			client.elements.add(transaction("1", "Login"));
+			assertEquals(1, cache.getElements(client, 3).size());
+			client.elements.add(transaction("2", "Logout"));
+			assertEquals(1, cache.getElements(client, 3).size());
+			assertEquals(1, cache.getElements(client, 3).size());
+			assertEquals(3, client.reads);
+
+			//The third export after the last read finds the new element
+			assertEquals(2, cache.getElements(client, 3).size());
+			assertEquals(4, client.reads);
+		} finally {
+			ElementDefinitionCache.release(key);
+		}
+	}
+
+	@Test
+	public void shouldCloneTheDatumsFromTheTemplatesOfTheElement() {
+		List<Dimension> baseDimensions = Collections.singletonList(new Dimension().withName("Test").withValue("test"));
+		ElementDefinitionCache.Element login = new ElementDefinitionCache.Element(transaction("1", "Login"));
+
+		MetricDatum first = login.newDatum(baseDimensions, TransactionMetric.AVG_DURATION);
+		first.setValue(1.5);
+		MetricDatum second = login.newDatum(baseDimensions, TransactionMetric.AVG_DURATION);
+
+		//The datums share the dimension list copied once into the template, the value of a datum is not seen by the next ones
+		assertNotSame(first, second);
+		assertSame(first.getDimensions(), second.getDimensions());
+		assertEquals(6, second.getDimensions().size());
+		assertEquals("Response time", second.getMetricName());
+		assertEquals("Seconds", second.getUnit());
+		assertNull(second.getValue());
+		assertEquals("Script/Actions/Login (avgDuration): ", login.getLabel(TransactionMetric.AVG_DURATION));
+	}
+
+	private static ElementDefinition transaction(String id, String name) {
+		ElementDefinition definition = new ElementDefinition();
+		definition.setId(id);
+		definition.setName(name);
+		definition.setType("TRANSACTION");
+		definition.setPath(Arrays.asList("Script", "Actions", name));
+		return definition;
+	}
+}
@@ -0,0 +1,131 @@
+package com.neotys.ps.aws.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.swagger.client.ApiException;
+import io.swagger.client.api.ResultsApi;
+import io.swagger.client.model.ElementDefinition;
+import io.swagger.client.model.ElementValues;
+
+public class ElementValuesFetcherTest {
+
+	/**
+	 * Results whose values take some time to be read, and record the number of requests in flight.
+	 */
+	private static class SlowResultsApi extends ResultsApi {
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger maxInFlight = new AtomicInteger();
+
+		@Override
+		public ElementValues getTestElementsValues(String testId, String elementId) throws ApiException {
+			int current = inFlight.incrementAndGet();
+			while (true) {
+				int max = maxInFlight.get();
+				if (current <= max || maxInFlight.compareAndSet(max, current)) {
+					break;
+				}
+			}
+			try {
+				//The first elements answer last
+				Thread.sleep(Math.max(1, 20 - Integer.parseInt(elementId)));
+			} catch (InterruptedException e) {
+				throw new ApiException(e);
+			} finally {
+				inFlight.decrementAndGet();
+			}
+			return new ElementValues().count(Long.parseLong(elementId));
+		}
+	}
+
+	private final ElementValuesFetcher fetcher = new ElementValuesFetcher(3);
+
+	@After
+	public void shutdown() {
+		fetcher.shutdown();
+	}
+
+	@Test
+	public void shouldKeepTheOrderOfTheElements() throws ApiException {
+		SlowResultsApi client = new SlowResultsApi();
+
+		List<ElementValues> values = fetcher.fetch(client, "test", elements(12));
+
+		assertEquals(12, values.size());
+		for (int i = 0; i < values.size(); i++) {
+			assertEquals(Long.valueOf(i), values.get(i).getCount());
+		}
+	}
+
+	@Test
+	public void shouldBoundTheRequestsInFlight() throws ApiException {
+		SlowResultsApi client = new SlowResultsApi();
+
+		fetcher.fetch(client, "test", elements(12));
+
+		assertTrue(client.maxInFlight.get() <= 3);
+		assertTrue(client.maxInFlight.get() > 1);
+	}
+
+	@Test
+	public void shouldCancelTheOtherRequestsOnError() throws InterruptedException {
+		final ApiException error = new ApiException(503, "Service unavailable");
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch interrupted = new CountDownLatch(2);
+		ResultsApi client = new ResultsApi() {
+			@Override
+			public ElementValues getTestElementsValues(String testId, String elementId) throws ApiException {
+				if ("0".equals(elementId)) {
+					//Fail once the other requests are running
+					try {
+						started.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						throw new ApiException(e);
+					}
+					throw error;
+				}
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+				return new ElementValues();
+			}
+		};
+
+		try {
+			fetcher.fetch(client, "test", elements(3));
+			fail();
+		} catch (ApiException e) {
+			assertSame(error, e);
+		}
+		//The requests still running are interrupted
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+	}
+
+	private static List<ElementDefinitionCache.Element> elements(int count) {
+		List<ElementDefinitionCache.Element> elements = new ArrayList<ElementDefinitionCache.Element>();
+		for (int i = 0; i < count; i++) {
+			ElementDefinition definition = new ElementDefinition();
+			definition.setId(String.valueOf(i));
+			definition.setName("Transaction " + i);
+			definition.setType("TRANSACTION");
+			definition.setPath(Arrays.asList("Script", "Actions", "Transaction " + i));
+			elements.add(new ElementDefinitionCache.Element(definition));
+		}
+		return elements;
+	}
+}
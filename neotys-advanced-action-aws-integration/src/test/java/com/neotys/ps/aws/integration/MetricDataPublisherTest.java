@@ -0,0 +1,188 @@
+package com.neotys.ps.aws.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.cloudwatch.AbstractAmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+public class MetricDataPublisherTest {
+
+	private static final class RecordingCloudWatch extends AbstractAmazonCloudWatch {
+		private final List<PutMetricDataRequest> requests = new ArrayList<PutMetricDataRequest>();
+		private int throttledRequests;
+
+		@Override
+		public PutMetricDataResult putMetricData(PutMetricDataRequest request) {
+			if (throttledRequests > 0) {
+				throttledRequests--;
+				AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+				e.setErrorCode("Throttling");
+				e.setStatusCode(400);
+				throw e;
+			}
+			requests.add(request);
+			return new PutMetricDataResult();
+		}
+	}
+
+	@Test
+	public void shouldSendAllDatumsOfARunInOneRequest() {
+		final RecordingCloudWatch client = new RecordingCloudWatch();
+		final MetricDataPublisher publisher = new MetricDataPublisher(client, "NeoLoad");
+		final List<Dimension> dimensions = Arrays.asList(new Dimension().withName("TestId").withValue("1234"));
+		for (int i = 0; i < 400; i++) {
+			publisher.add(dimensions, "Response time", (double) i, StandardUnit.Seconds);
+		}
+
+		assertEquals(1, publisher.flush());
+		assertEquals(1, client.requests.size());
+		assertEquals(400, client.requests.get(0).getMetricData().size());
+		assertEquals("NeoLoad", client.requests.get(0).getNamespace());
+		assertEquals(0, publisher.getPendingCount());
+	}
+
+	@Test
+	public void shouldSplitRequestsOnDatumCount() {
+		final RecordingCloudWatch client = new RecordingCloudWatch();
+		final MetricDataPublisher publisher = new MetricDataPublisher(client, "NeoLoad");
+		final List<Dimension> dimensions = Arrays.asList(new Dimension().withName("TestId").withValue("1234"));
+		for (int i = 0; i < MetricDataPublisher.MAX_DATUMS_PER_REQUEST + 1; i++) {
+			publisher.add(dimensions, "VU", (double) i, StandardUnit.Count);
+		}
+
+		assertEquals(2, publisher.flush());
+		assertEquals(MetricDataPublisher.MAX_DATUMS_PER_REQUEST, client.requests.get(0).getMetricData().size());
+		assertEquals(1, client.requests.get(1).getMetricData().size());
+		assertEquals(MetricDataPublisher.MAX_DATUMS_PER_REQUEST + 1, publisher.getSentDatums());
+	}
+
+	@Test
+	public void shouldNotSplitAGroupOfDatums() {
+		final RecordingCloudWatch client = new RecordingCloudWatch();
+		final MetricDataPublisher publisher = new MetricDataPublisher(client, "NeoLoad");
+		final List<Dimension> dimensions = Arrays.asList(new Dimension().withName("TestId").withValue("1234"));
+		for (int i = 0; i < MetricDataPublisher.MAX_DATUMS_PER_REQUEST - 2; i++) {
+			publisher.add(dimensions, "VU", (double) i, StandardUnit.Count);
+		}
+		final List<MetricDatum> group = new ArrayList<MetricDatum>();
+		for (int i = 0; i < 5; i++) {
+			group.add(new MetricDatum().withDimensions(dimensions).withMetricName("Metric" + i).withValue((double) i));
+		}
+		publisher.addGroup(group);
+		publisher.add(dimensions, "VU", 0d, StandardUnit.Count);
+
+		assertEquals(2, publisher.flush());
+		assertEquals(MetricDataPublisher.MAX_DATUMS_PER_REQUEST - 2, client.requests.get(0).getMetricData().size());
+		assertEquals(6, client.requests.get(1).getMetricData().size());
+	}
+
+	@Test
+	public void shouldSplitRequestsOnPayloadSize() {
+		final RecordingCloudWatch client = new RecordingCloudWatch();
+		final MetricDataPublisher publisher = new MetricDataPublisher(client, "NeoLoad");
+		final char[] longValue = new char[250];
+		Arrays.fill(longValue, 'a');
+		final List<Dimension> dimensions = new ArrayList<Dimension>();
+		for (int i = 0; i < 10; i++) {
+			dimensions.add(new Dimension().withName("Dimension" + i).withValue(new String(longValue)));
+		}
+		for (int i = 0; i < 500; i++) {
+			publisher.add(dimensions, "Response time", (double) i, StandardUnit.Seconds);
+		}
+
+		assertEquals(3, publisher.flush());
+		for (PutMetricDataRequest request : client.requests) {
+			int payload = 0;
+			for (MetricDatum datum : request.getMetricData()) {
+				payload += MetricDataPublisher.estimateSize(datum);
+			}
+			assertTrue(payload <= MetricDataPublisher.MAX_PAYLOAD_BYTES);
+		}
+		assertEquals(500, publisher.getSentDatums());
+	}
+
+	@Test
+	public void shouldResendThrottledRequestsAtALowerRate() {
+		final RecordingCloudWatch client = new RecordingCloudWatch();
+		client.throttledRequests = 2;
+		final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(100);
+		final MetricDataPublisher publisher = new MetricDataPublisher(client, "NeoLoad", rateLimiter);
+		final List<Dimension> dimensions = Arrays.asList(new Dimension().withName("TestId").withValue("1234"));
+		publisher.add(dimensions, "VU", 10d, StandardUnit.Count);
+
+		assertEquals(1, publisher.flush());
+		assertEquals(1, client.requests.size());
+		assertEquals(2, rateLimiter.getThrottledCount());
+		assertTrue(rateLimiter.getRate() < 100);
+		assertEquals(0, publisher.getPendingCount());
+	}
+
+	@Test
+	public void shouldNotSendTheRequestsOfAnInterruptedThread() {
+		final RecordingCloudWatch client = new RecordingCloudWatch();
+		//A single token: the second request has to wait for the bucket to be refilled
+		final MetricDataPublisher publisher = new MetricDataPublisher(client, "NeoLoad", new AdaptiveRateLimiter(0.5));
+		final List<Dimension> dimensions = Arrays.asList(new Dimension().withName("TestId").withValue("1234"));
+		for (int i = 0; i < MetricDataPublisher.MAX_DATUMS_PER_REQUEST + 1; i++) {
+			publisher.add(dimensions, "VU", (double) i, StandardUnit.Count);
+		}
+
+		Thread.currentThread().interrupt();
+		try {
+			publisher.flush();
+			fail("The flush of an interrupted thread should be aborted");
+		} catch (AbortedException e) {
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+		assertEquals(1, client.requests.size());
+		assertEquals(1, publisher.getPendingCount());
+	}
+
+	@Test
+	public void shouldOnlyResendTheLeftOversToTheirAccount() {
+		final RecordingCloudWatch failingClient = new RecordingCloudWatch();
+		final RecordingCloudWatch client = new RecordingCloudWatch();
+		final MetricDataPublisher failingAccount = new MetricDataPublisher(failingClient, "NeoLoad", new AdaptiveRateLimiter(100));
+		final MetricDataPublisher account = new MetricDataPublisher(client, "NeoLoad", new AdaptiveRateLimiter(100));
+		final MetricDataPublisher run = new MetricDataPublisher("NeoLoad");
+		final List<Dimension> dimensions = Arrays.asList(new Dimension().withName("TestId").withValue("1234"));
+
+		run.add(dimensions, "VU", 10d, StandardUnit.Count);
+		run.movePendingTo(Arrays.asList(failingAccount, account));
+		assertEquals(0, run.getPendingCount());
+		failingClient.throttledRequests = Integer.MAX_VALUE;
+		try {
+			failingAccount.flush();
+			fail("The flush of the throttled account should fail");
+		} catch (AmazonServiceException e) {
+			assertEquals(1, failingAccount.getPendingCount());
+		}
+		assertEquals(1, account.flush());
+
+		failingClient.throttledRequests = 0;
+		run.add(dimensions, "VU", 20d, StandardUnit.Count);
+		run.movePendingTo(Arrays.asList(failingAccount, account));
+		account.flush();
+		failingAccount.flush();
+
+		assertEquals(2, client.requests.size());
+		assertEquals(1, client.requests.get(1).getMetricData().size());
+		assertEquals(2, failingClient.requests.get(0).getMetricData().size());
+	}
+}
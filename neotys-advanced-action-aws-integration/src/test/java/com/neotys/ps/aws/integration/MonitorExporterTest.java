@@ -0,0 +1,151 @@
+package com.neotys.ps.aws.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amazonaws.services.cloudwatch.AbstractAmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+
+import io.swagger.client.ApiException;
+import io.swagger.client.api.ResultsApi;
+import io.swagger.client.model.CounterDefinition;
+import io.swagger.client.model.CounterDefinitions;
+import io.swagger.client.model.CounterValues;
+
+public class MonitorExporterTest {
+
+	/**
+	 * Results of a test whose counters and values are set by the test.
+	 */
+	private static final class StubResultsApi extends ResultsApi {
+		private final CounterDefinitions counters = new CounterDefinitions();
+		private final Map<String, CounterValues> values = new HashMap<String, CounterValues>();
+
+		@Override
+		public CounterDefinitions getTestMonitorDefinitions(String testId) {
+			return counters;
+		}
+
+		@Override
+		public CounterValues getTestMonitorsValues(String testId, String counterId) {
+			return values.get(counterId);
+		}
+	}
+
+	private static final class RecordingCloudWatch extends AbstractAmazonCloudWatch {
+		private final List<MetricDatum> datums = new ArrayList<MetricDatum>();
+
+		@Override
+		public PutMetricDataResult putMetricData(PutMetricDataRequest request) {
+			datums.addAll(request.getMetricData());
+			return new PutMetricDataResult();
+		}
+	}
+
+	private final ElementValuesFetcher fetcher = new ElementValuesFetcher(2);
+	private final List<Dimension> baseDimensions = Collections.singletonList(new Dimension().withName("Test").withValue("test"));
+
+	@After
+	public void shutdown() {
+		fetcher.shutdown();
+	}
+
+	@Test
+	public void shouldExportTheAverageOfTheInterval() {
+		CounterValues first = values(4, 40);
+		assertEquals(10d, MonitorExporter.getIntervalAvg(null, first), 0);
+		assertEquals(30d, MonitorExporter.getIntervalAvg(first, values(6, 100)), 0);
+	}
+
+	@Test
+	public void shouldStartFromZeroAfterAReset() {
+		//The count is lower than at the last export: the values have been reset
+		assertEquals(5d, MonitorExporter.getIntervalAvg(values(6, 100), values(2, 10)), 0);
+	}
+
+	@Test
+	public void shouldNotExportAnEmptyInterval() {
+		assertNull(MonitorExporter.getIntervalAvg(values(6, 100), values(6, 100)));
+		assertNull(MonitorExporter.getIntervalAvg(null, values(0, 0)));
+	}
+
+	@Test
+	public void shouldExportTheCumulativeAverageWithoutTotals() {
+		assertEquals(2.5d, MonitorExporter.getIntervalAvg(values(6, 100), new CounterValues().avg(2.5f)), 0);
+	}
+
+	@Test
+	public void shouldExportTheCountersAddedToTheTest() throws ApiException {
+		StubResultsApi client = new StubResultsApi();
+		client.counters.add(counter("1", "CPU", "Host", "CPU"));
+		client.values.put("1", values(1, 50));
+		MonitorExporter exporter = new MonitorExporter(fetcher, new HashMap<String, CounterValues>(), ElementDefinitionCache.DEFAULT_REFRESH_EXPORTS);
+		RecordingCloudWatch cloudWatch = new RecordingCloudWatch();
+		MetricDataPublisher publisher = new MetricDataPublisher(cloudWatch, "NeoLoad");
+		StringBuilder response = new StringBuilder();
+
+		exporter.addMonitorDatums(client, "test", publisher, baseDimensions, response);
+
+		//A counter started later is exported once the counters are listed again
+		client.counters.add(counter("2", "Memory", "Host", "Memory"));
+		client.values.put("1", values(2, 110));
+		client.values.put("2", values(1, 1024));
+		exporter.refresh(client.getTestMonitorDefinitions("test"), baseDimensions);
+		exporter.addMonitorDatums(client, "test", publisher, baseDimensions, response);
+		publisher.flush();
+
+		assertEquals("Monitors: 1 counters exported out of 1\nMonitors: 2 counters exported out of 2\n", response.toString());
+		assertEquals(3, cloudWatch.datums.size());
+		assertEquals("CPU", cloudWatch.datums.get(1).getMetricName());
+		assertEquals(60d, cloudWatch.datums.get(1).getValue(), 0);
+		assertEquals("Memory", cloudWatch.datums.get(2).getMetricName());
+		assertEquals(1024d, cloudWatch.datums.get(2).getValue(), 0);
+	}
+
+	@Test
+	public void shouldKeepTheDimensionsOfTheKnownCounters() throws ApiException {
+		StubResultsApi client = new StubResultsApi();
+		client.counters.add(counter("1", "CPU", "Host", "CPU"));
+		client.values.put("1", values(1, 50));
+		MonitorExporter exporter = new MonitorExporter(fetcher, new HashMap<String, CounterValues>(), ElementDefinitionCache.DEFAULT_REFRESH_EXPORTS);
+		RecordingCloudWatch cloudWatch = new RecordingCloudWatch();
+		MetricDataPublisher publisher = new MetricDataPublisher(cloudWatch, "NeoLoad");
+
+		exporter.addMonitorDatums(client, "test", publisher, baseDimensions, new StringBuilder());
+		exporter.refresh(Arrays.asList(counter("2", "Memory", "Host", "Memory"), counter("1", "CPU", "Host", "CPU")), baseDimensions);
+		client.values.put("1", values(2, 110));
+		client.values.put("2", values(1, 1024));
+		exporter.addMonitorDatums(client, "test", publisher, baseDimensions, new StringBuilder());
+		publisher.flush();
+
+		List<Dimension> cpu = cloudWatch.datums.get(0).getDimensions();
+		assertEquals(4, cpu.size());
+		assertEquals("Host/CPU", cpu.get(3).getValue());
+		assertEquals(cpu, cloudWatch.datums.get(2).getDimensions());
+		//The counters of the same monitor share the Dimension of the monitor
+		assertSame(cpu.get(2), cloudWatch.datums.get(1).getDimensions().get(2));
+		assertEquals("Host/Memory", cloudWatch.datums.get(1).getDimensions().get(3).getValue());
+	}
+
+	private static CounterDefinition counter(String id, String name, String... path) {
+		return new CounterDefinition().id(id).name(name).path(Arrays.asList(path));
+	}
+
+	private static CounterValues values(long count, long sum) {
+		return new CounterValues().count(count).sum(sum).avg((float) sum / count);
+	}
+}
@@ -0,0 +1,73 @@
+package com.neotys.ps.aws.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+
+import io.swagger.client.model.PointSeries;
+
+public class PercentileExporterTest {
+
+	private final PercentileExporter exporter = new PercentileExporter(Arrays.asList(50d, 90d), new ElementValuesFetcher(1), new HashMap<String, Long>());
+
+	private static PointSeries series(long[] offsets, float value) {
+		float[] values = new float[offsets.length];
+		Arrays.fill(values, value);
+		return new PointSeries(offsets, values, offsets.length);
+	}
+
+	@Test
+	public void shouldLeaveTheOpenPointForTheNextExport() {
+		long[] offsets = {1000, 2000, 3000};
+		assertEquals(Long.valueOf(2000), exporter.record(series(offsets, 100), series(offsets, 500), series(offsets, 10), Long.MIN_VALUE));
+
+		//The open point is recorded once it is closed by a new point
+		long[] nextOffsets = {1000, 2000, 3000, 4000};
+		assertEquals(Long.valueOf(3000), exporter.record(series(nextOffsets, 100), series(nextOffsets, 500), series(nextOffsets, 10), 2000));
+	}
+
+	@Test
+	public void shouldNotRecordASeriesWithOnlyTheOpenPoint() {
+		long[] offsets = {1000};
+		assertNull(exporter.record(series(offsets, 100), series(offsets, 500), series(offsets, 10), Long.MIN_VALUE));
+		assertNull(exporter.record(new PointSeries(new long[0], new float[0], 0), new PointSeries(new long[0], new float[0], 0), new PointSeries(new long[0], new float[0], 0), Long.MIN_VALUE));
+	}
+
+	@Test
+	public void shouldLeaveThePointsMissingFromTheFirstSeriesRead() {
+		//A point has been opened between the reads of the averages and of the counts
+		long[] offsets = {1000, 2000};
+		long[] laterOffsets = {1000, 2000, 3000};
+		assertEquals(Long.valueOf(1000), exporter.record(series(offsets, 100), series(laterOffsets, 500), series(laterOffsets, 10), Long.MIN_VALUE));
+	}
+
+	@Test
+	public void shouldNotRecordThePointsAlreadyExported() {
+		long[] offsets = {1000, 2000, 3000};
+		assertNull(exporter.record(series(offsets, 100), series(offsets, 500), series(offsets, 10), 2000));
+	}
+
+	@Test
+	public void shouldPublishTheDistributionOfTheRecordedPoints() {
+		long[] offsets = {1000, 2000, 3000};
+		exporter.record(series(offsets, 100), series(offsets, 500), series(offsets, 10), Long.MIN_VALUE);
+
+		MetricDatum datum = exporter.getDistributionDatum(Collections.singletonList(new Dimension().withName("Test").withValue("test")));
+
+		//Each of the two closed points has 9 executions at the average of the rest of the point and 1 at the maximum
+		assertEquals(PercentileExporter.DISTRIBUTION_METRIC_NAME, datum.getMetricName());
+		assertEquals(2, datum.getValues().size());
+		assertEquals(0.0556, datum.getValues().get(0), 0.0556 * DurationSketch.RELATIVE_ACCURACY);
+		assertEquals(0.5, datum.getValues().get(1), 0.5 * DurationSketch.RELATIVE_ACCURACY);
+		assertEquals(Arrays.asList(18d, 2d), datum.getCounts());
+		assertNull(datum.getValue());
+	}
+}
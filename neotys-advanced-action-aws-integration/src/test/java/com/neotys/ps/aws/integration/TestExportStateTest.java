@@ -0,0 +1,83 @@
+package com.neotys.ps.aws.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.services.cloudwatch.AbstractAmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+
+import io.swagger.client.model.ElementDefinition;
+import io.swagger.client.model.ElementValues;
+
+public class TestExportStateTest {
+
+	private static final class RecordingCloudWatch extends AbstractAmazonCloudWatch {
+		private final List<MetricDatum> datums = new ArrayList<MetricDatum>();
+
+		@Override
+		public PutMetricDataResult putMetricData(PutMetricDataRequest request) {
+			datums.addAll(request.getMetricData());
+			return new PutMetricDataResult();
+		}
+	}
+
+	@Test
+	public void shouldShareTheStateOfATestUntilItsLastRelease() {
+		TestExportState state = TestExportState.acquire("test");
+		try {
+			assertSame(state, TestExportState.acquire("test"));
+			TestExportState.release("test");
+			assertNotSame(state, TestExportState.acquire("other"));
+			TestExportState.release("other");
+		} finally {
+			TestExportState.release("test");
+		}
+		assertNotSame(state, TestExportState.acquire("test"));
+		TestExportState.release("test");
+	}
+
+	@Test
+	public void shouldExportAnIntervalOnceForAllTheVirtualUsers() {
+		TestExportState firstUser = TestExportState.acquire("test");
+		TestExportState secondUser = TestExportState.acquire("test");
+		try {
+			ElementDefinition definition = new ElementDefinition();
+			definition.setId("1");
+			definition.setName("Login");
+			definition.setType("TRANSACTION");
+			definition.setPath(Arrays.asList("Script", "Actions", "Login"));
+			List<ElementDefinitionCache.Element> transactions = Collections.singletonList(new ElementDefinitionCache.Element(definition));
+			List<Dimension> baseDimensions = Collections.singletonList(new Dimension().withName("TestId").withValue("test"));
+			List<TransactionMetric> metrics = Collections.singletonList(TransactionMetric.COUNT);
+			RecordingCloudWatch cloudWatch = new RecordingCloudWatch();
+			MetricDataPublisher publisher = new MetricDataPublisher(cloudWatch, "NeoLoad");
+
+			//The second virtual user only exports what has been executed since the export of the first one
+			TestExporter.addTransactionDatums(publisher, baseDimensions, transactions, values(10), metrics, firstUser.getTransactionValues(), new StringBuilder());
+			TestExporter.addTransactionDatums(publisher, baseDimensions, transactions, values(15), metrics, secondUser.getTransactionValues(), new StringBuilder());
+			publisher.flush();
+
+			assertEquals(2, cloudWatch.datums.size());
+			assertEquals(10d, cloudWatch.datums.get(0).getValue(), 0);
+			assertEquals(5d, cloudWatch.datums.get(1).getValue(), 0);
+		} finally {
+			TestExportState.release("test");
+			TestExportState.release("test");
+		}
+	}
+
+	private static List<ElementValues> values(long count) {
+		return Collections.singletonList(new ElementValues().count(count));
+	}
+}
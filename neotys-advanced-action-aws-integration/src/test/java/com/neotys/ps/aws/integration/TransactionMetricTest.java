@@ -0,0 +1,61 @@
+package com.neotys.ps.aws.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.swagger.client.model.ElementValues;
+
+public class TransactionMetricTest {
+
+	@Test
+	public void shouldComputeTheAverageOfTheInterval() {
+		ElementValues previous = values(100, 50000);
+		ElementValues current = values(150, 60000);
+
+		//50 executions for 10 seconds, whatever the cumulative average
+		assertEquals(0.2, TransactionMetric.AVG_DURATION.getValue(previous, current), 0.0001);
+		assertEquals(0.4, TransactionMetric.AVG_DURATION.getValue(null, current), 0.0001);
+	}
+
+	@Test
+	public void shouldComputeTheTotalsOfTheInterval() {
+		ElementValues previous = values(100, 50000);
+		ElementValues current = values(150, 60000);
+
+		assertEquals(50, TransactionMetric.COUNT.getValue(previous, current), 0.0001);
+		assertEquals(10, TransactionMetric.SUM_DURATION.getValue(previous, current), 0.0001);
+		//The values have been reset
+		assertEquals(100, TransactionMetric.COUNT.getValue(current, previous), 0.0001);
+	}
+
+	@Test
+	public void shouldSkipElementsNotExecutedSinceTheLastExport() {
+		assertFalse(TransactionMetric.isExecuted(values(100, 50000), values(100, 50000)));
+		assertFalse(TransactionMetric.isExecuted(null, values(0, 0)));
+		assertTrue(TransactionMetric.isExecuted(values(100, 50000), values(101, 50500)));
+		assertNull(TransactionMetric.AVG_DURATION.getValue(values(100, 50000), values(100, 50000)));
+	}
+
+	@Test
+	public void shouldParseFieldNames() {
+		assertEquals(2, TransactionMetric.parse("avgDuration, MAXDURATION,avgDuration").size());
+		assertEquals(TransactionMetric.MAX_DURATION, TransactionMetric.parse("avgDuration, MAXDURATION").get(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectUnknownFieldNames() {
+		TransactionMetric.parse("avgDuration,p99");
+	}
+
+	private static ElementValues values(long count, long sumDuration) {
+		ElementValues values = new ElementValues();
+		values.setCount(count);
+		values.setSumDuration(sumDuration);
+		values.setAvgDuration(count == 0 ? 0f : (float) sumDuration / count);
+		return values;
+	}
+}
@@ -0,0 +1,90 @@
+package io.swagger.client.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import io.swagger.client.ApiClient;
+import io.swagger.client.ApiException;
+import io.swagger.client.model.CounterDefinition;
+import io.swagger.client.model.CounterDefinitions;
+
+public class ResultsApiTest {
+
+	private HttpServer server;
+	private String body;
+	private String requestPath;
+
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/v1", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requestPath = exchange.getRequestURI().getPath();
+				byte[] response = body.getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, response.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(response);
+				out.close();
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	private ResultsApi client() {
+		ApiClient apiClient = new ApiClient();
+		apiClient.setBasePath("http://localhost:" + server.getAddress().getPort() + "/v1");
+		apiClient.setApiKey("token");
+		return new ResultsApi(apiClient);
+	}
+
+	@Test
+	public void shouldReadTheCountersAsAList() throws ApiException {
+		body = "[{\"id\":\"1\",\"name\":\"CPU\",\"path\":[\"Host\",\"CPU\"]},{\"id\":\"2\",\"name\":\"Memory\",\"path\":[\"Host\",\"Memory\"],\"unit\":\"MB\"}]";
+
+		CounterDefinitions counters = client().getTestMonitorDefinitions("test");
+
+		assertEquals("/v1/tests/test/monitors", requestPath);
+		assertEquals(2, counters.size());
+		assertEquals("CPU", counters.get(0).getName());
+		assertEquals(Arrays.asList("Host", "Memory"), counters.get(1).getPath());
+	}
+
+	@Test
+	public void shouldReadTheCountersWithoutPath() throws ApiException {
+		body = "[{\"id\":\"1\",\"name\":\"CPU\"}]";
+
+		CounterDefinition counter = client().getTestMonitorDefinitions("test").get(0);
+
+		assertEquals("1", counter.getId());
+		assertNull(counter.getPath());
+	}
+
+	@Test
+	public void shouldReadAnEmptyListOfCounters() throws ApiException {
+		body = "[]";
+
+		assertTrue(client().getTestMonitorDefinitions("test").isEmpty());
+	}
+}
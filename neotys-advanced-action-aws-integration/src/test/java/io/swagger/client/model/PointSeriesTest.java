@@ -0,0 +1,64 @@
+package io.swagger.client.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.swagger.client.ApiClient;
+import io.swagger.client.JSON;
+
+public class PointSeriesTest {
+
+	private final JSON json = new ApiClient().getJSON();
+
+	@Test
+	public void shouldRoundTripAnEmptySeries() {
+		PointSeries series = json.deserialize("[]", PointSeries.class);
+
+		assertEquals(0, series.size());
+		assertEquals("[]", json.serialize(series));
+		assertNull(json.deserialize("null", PointSeries.class));
+	}
+
+	@Test
+	public void shouldRoundTripTheNullValues() {
+		PointSeries series = json.deserialize("[{\"offset\":0,\"value\":1.5},{\"offset\":1000,\"value\":null},{\"offset\":2000}]", PointSeries.class);
+
+		assertEquals(3, series.size());
+		assertEquals(1.5f, series.getValue(0), 0);
+		assertTrue(Float.isNaN(series.getValue(1)));
+		assertTrue(Float.isNaN(series.getValue(2)));
+		assertEquals(2000, series.getOffset(2));
+
+		//Gson does not write the null fields: the null values are read back from the missing values
+		String serialized = json.serialize(series);
+		assertEquals("[{\"offset\":0,\"value\":1.5},{\"offset\":1000},{\"offset\":2000}]", serialized);
+		assertEquals(series, json.deserialize(serialized, PointSeries.class));
+	}
+
+	@Test
+	public void shouldSkipTheUnknownFields() {
+		PointSeries series = json.deserialize("[{\"from\":{\"a\":[1,2]},\"offset\":1000,\"unit\":\"ms\",\"value\":2,\"tags\":[\"x\"]},{\"value\":3}]", PointSeries.class);
+
+		//The point without offset is dropped
+		assertEquals(1, series.size());
+		assertEquals(1000, series.getOffset(0));
+		assertEquals(2f, series.getValue(0), 0);
+	}
+
+	@Test
+	public void shouldRoundTripALongSeries() {
+		int size = 1000;
+		long[] offsets = new long[size];
+		float[] values = new float[size];
+		for (int i = 0; i < size; i++) {
+			offsets[i] = i * 1000L;
+			values[i] = i % 10 == 0 ? Float.NaN : i / 4f;
+		}
+		PointSeries series = new PointSeries(offsets, values, size);
+
+		assertEquals(series, json.deserialize(json.serialize(series), PointSeries.class));
+	}
+}
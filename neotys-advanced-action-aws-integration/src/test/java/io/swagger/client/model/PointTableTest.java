@@ -0,0 +1,50 @@
+package io.swagger.client.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.swagger.client.ApiClient;
+import io.swagger.client.JSON;
+
+public class PointTableTest {
+
+	private final JSON json = new ApiClient().getJSON();
+
+	@Test
+	public void shouldReadTheSeriesOfEachStatistic() {
+		PointTable table = json.deserialize("[{\"offset\":0,\"AVG_DURATION\":120.5,\"COUNT\":4},"
+				+ "{\"offset\":1000,\"AVG_DURATION\":null,\"COUNT\":0,\"MAX_DURATION\":300},{\"COUNT\":2}]", PointTable.class);
+
+		//The point without offset is dropped
+		assertEquals(2, table.size());
+		PointSeries avgDurations = table.getSeries("AVG_DURATION");
+		assertEquals(120.5f, avgDurations.getValue(0), 0);
+		assertTrue(Float.isNaN(avgDurations.getValue(1)));
+		assertEquals(0f, table.getSeries("COUNT").getValue(1), 0);
+		//A statistic missing from the first points has no value for them
+		assertTrue(Float.isNaN(table.getSeries("MAX_DURATION").getValue(0)));
+		assertEquals(300f, table.getSeries("MAX_DURATION").getValue(1), 0);
+		assertTrue(Float.isNaN(table.getSeries("MIN_DURATION").getValue(0)));
+		assertEquals(1000, table.getSeries("MIN_DURATION").getOffset(1));
+	}
+
+	@Test
+	public void shouldRoundTripALongTable() {
+		StringBuilder points = new StringBuilder("[");
+		for (int i = 0; i < 1000; i++) {
+			points.append(i == 0 ? "" : ",").append("{\"offset\":").append(i * 1000).append(",\"COUNT\":").append(i % 7);
+			if (i % 10 != 0) {
+				points.append(",\"AVG_DURATION\":").append(i / 4f);
+			}
+			points.append("}");
+		}
+		PointTable table = json.deserialize(points.append("]").toString(), PointTable.class);
+
+		assertEquals(1000, table.size());
+		assertEquals(table, json.deserialize(json.serialize(table), PointTable.class));
+		assertNull(json.deserialize("null", PointTable.class));
+	}
+}
@@ -0,0 +1,201 @@
+package com.neotys.ps.aws.monitoring;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryPolicy.RetryCondition;
+
+/**
+ * Rate limiter of the requests sent to CloudWatch with one set of credentials and endpoint, shared by all its users.
+ * Requests take a token from a bucket refilled at the current rate. The rate follows an AIMD scheme: it grows by about
+ * one request per second every second without throttling, up to the maximum rate, and is halved when CloudWatch
+ * throttles a request. Throttled requests are retried after a jittered exponential backoff.
+ * The limiter is the only one to retry the throttled requests: the clients it is used with must be built with RETRY_POLICY,
+ * so that the throttling reaches the limiter at once. The other transient errors (5xx, connection resets, timeouts) are still
+ * retried by the SDK. The maximum rate is given by the users, each API having its own quota.
+ */
+final class AdaptiveRateLimiter {
+
+	private static final double MIN_RATE = 0.5;
+	private static final int MAX_ATTEMPTS = 6;
+	private static final long BASE_BACKOFF = 200;
+	private static final long MAX_BACKOFF = 20000;
+
+	/**
+	 * Retry policy of the SDK for the clients used with a limiter: the default one, except that throttled requests are left to the limiter.
+	 */
+	static final RetryPolicy RETRY_POLICY = new RetryPolicy(new RetryCondition() {
+		@Override
+		public boolean shouldRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception, int retriesAttempted) {
+			if (exception instanceof AmazonServiceException && isThrottling((AmazonServiceException) exception)) {
+				return false;
+			}
+			return PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(originalRequest, exception, retriesAttempted);
+		}
+	}, PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY, PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY, false);
+
+	private static final Map<String, AdaptiveRateLimiter> LIMITERS = new HashMap<String, AdaptiveRateLimiter>();
+
+	/**
+	 * A request sent to CloudWatch, that may be sent again when it is throttled.
+	 */
+	interface Request<T> {
+		T send();
+	}
+
+	private final Random random = new Random();
+	private double maxRate;
+	private double rate;
+	private double tokens;
+	private long lastRefillTime;
+	private long lastDecreaseTime;
+	private long throttledCount;
+
+	AdaptiveRateLimiter(double maxRate) {
+		this.maxRate = Math.max(MIN_RATE, maxRate);
+		this.rate = this.maxRate;
+		this.tokens = Math.max(1, rate);
+		this.lastRefillTime = System.nanoTime();
+	}
+
+	/**
+	 * Get the limiter shared by all the users of the client registered under the given key.
+	 * @param maxRate maximum number of requests per second, updated on each call
+	 */
+	static synchronized AdaptiveRateLimiter get(String clientKey, double maxRate) {
+		AdaptiveRateLimiter limiter = LIMITERS.get(clientKey);
+		if (limiter == null) {
+			limiter = new AdaptiveRateLimiter(maxRate);
+			LIMITERS.put(clientKey, limiter);
+		} else {
+			limiter.setMaxRate(maxRate);
+		}
+		return limiter;
+	}
+
+	/**
+	 * Send a request once a token is available, and send it again after a backoff as long as it is throttled.
+	 * @throws AmazonClientException if the request fails for another reason than throttling once the SDK gave up retrying it,
+	 * or is still throttled after the last attempt
+	 * @throws AbortedException if the thread is interrupted while waiting for a token, the request is then not sent
+	 */
+	<T> T execute(Request<T> request) {
+		for (int attempt = 1; ; attempt++) {
+			if (!acquire()) {
+				throw new AbortedException("Interrupted while waiting for a CloudWatch request token");
+			}
+			try {
+				T result = request.send();
+				onSuccess();
+				return result;
+			} catch (AmazonServiceException e) {
+				if (!isThrottling(e) || attempt >= MAX_ATTEMPTS) {
+					throw e;
+				}
+				onThrottling();
+				if (!sleep(TimeUnit.MILLISECONDS.toNanos(getBackoff(attempt)))) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	static boolean isThrottling(AmazonServiceException e) {
+		String errorCode = e.getErrorCode();
+		return "Throttling".equals(errorCode)
+				|| "ThrottlingException".equals(errorCode)
+				|| "RequestLimitExceeded".equals(errorCode)
+				|| e.getStatusCode() == 429;
+	}
+
+	/**
+	 * Take a token, waiting until one is available. The waiting threads are served in their order of arrival.
+	 * @return false if the thread has been interrupted while waiting, the interrupt flag being set again
+	 */
+	boolean acquire() {
+		long waitTime;
+		synchronized (this) {
+			refill();
+			//The token is reserved now, the thread waits for the bucket to be refilled outside of the lock
+			tokens -= 1;
+			waitTime = tokens >= 0 ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+		}
+		return sleep(waitTime);
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(Math.max(1, rate), tokens + (now - lastRefillTime) * rate / TimeUnit.SECONDS.toNanos(1));
+		lastRefillTime = now;
+	}
+
+	private synchronized void onSuccess() {
+		//Additive increase: rate successful requests, about one second, add one request per second
+		rate = Math.min(maxRate, rate + 1 / rate);
+	}
+
+	private synchronized void onThrottling() {
+		throttledCount++;
+		//Multiplicative decrease, once per second at most: the requests in flight are throttled together
+		long now = System.nanoTime();
+		if (now - lastDecreaseTime >= TimeUnit.SECONDS.toNanos(1)) {
+			refill();
+			rate = Math.max(MIN_RATE, rate / 2);
+			lastDecreaseTime = now;
+		}
+	}
+
+	/**
+	 * Full jitter backoff: a random delay up to an exponentially growing bound.
+	 */
+	private long getBackoff(int attempt) {
+		long bound = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(attempt, 16));
+		synchronized (random) {
+			return (long) (random.nextDouble() * bound);
+		}
+	}
+
+	private static boolean sleep(long nanos) {
+		if (nanos <= 0) {
+			return true;
+		}
+		try {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private synchronized void setMaxRate(double maxRate) {
+		this.maxRate = Math.max(MIN_RATE, maxRate);
+		rate = Math.min(rate, this.maxRate);
+	}
+
+	/**
+	 * @return the current number of requests per second allowed
+	 */
+	synchronized double getRate() {
+		return rate;
+	}
+
+	synchronized double getMaxRate() {
+		return maxRate;
+	}
+
+	/**
+	 * @return the number of requests throttled by CloudWatch since the limiter was created
+	 */
+	synchronized long getThrottledCount() {
+		return throttledCount;
+	}
+}
@@ -0,0 +1,193 @@
+package com.neotys.ps.aws.monitoring;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.olingo.odata2.api.exception.ODataException;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.STSAssumeRoleSessionCredentialsProvider;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchClientBuilder;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
+import com.amazonaws.util.AwsHostNameUtils;
+import com.neotys.rest.dataexchange.client.DataExchangeAPIClient;
+import com.neotys.rest.dataexchange.client.DataExchangeAPIClientFactory;
+import com.neotys.rest.error.NeotysAPIException;
+
+/**
+ * Process wide registry of the AWS and Data Exchange clients, shared by all the virtual users running the action.
+ * Clients are reference counted: each engine acquires a client once and releases it on stopExecute,
+ * the client is shut down when the last engine using it releases it.
+ */
+final class ClientRegistry {
+
+	private static final Map<String, SharedClient> CLIENTS = new HashMap<String, SharedClient>();
+	/** Region of the global STS endpoint, used when no STS endpoint is given. */
+	private static final String STS_GLOBAL_REGION = "us-east-1";
+	private static final String ROLE_SESSION_NAME = "NeoLoad-CloudWatch";
+
+	private ClientRegistry() {
+	}
+
+	private static final class SharedClient {
+		private final Object client;
+		private final Runnable shutdown;
+		private int references;
+
+		private SharedClient(Object client, Runnable shutdown) {
+			this.client = client;
+			this.shutdown = shutdown;
+		}
+	}
+
+	/**
+	 * @param roleArn role assumed with the access key, null or empty to use the access key itself
+	 * @param stsEndpoint endpoint of STS to assume the role, null or empty for the global STS endpoint
+	 */
+	static String cloudWatchKey(String endpoint, String accessKey, String secretKey, String roleArn, String stsEndpoint) {
+		return "cloudwatch|" + endpoint + "|" + credentialsKey(accessKey, secretKey, roleArn, stsEndpoint);
+	}
+
+	private static String credentialsKey(String accessKey, String secretKey, String roleArn, String stsEndpoint) {
+		if (roleArn == null || roleArn.isEmpty()) {
+			return accessKey + "|" + secretKey;
+		}
+		return accessKey + "|" + secretKey + "|" + roleArn + "|" + stsEndpoint;
+	}
+
+	/**
+	 * @return the account id of a role ARN such as arn:aws:iam::123456789012:role/name, or the ARN itself if it has another format
+	 */
+	static String getAccountId(String roleArn) {
+		String[] fields = roleArn.split(":");
+		return fields.length > 4 && !fields[4].isEmpty() ? fields[4] : roleArn;
+	}
+
+	static String dataExchangeKey(String host) {
+		return "dataexchange|" + host;
+	}
+
+	/**
+	 * Get the CloudWatch client registered under the key returned by cloudWatchKey, creating it if needed.
+	 * The client does not retry the throttled requests, they are retried by the AdaptiveRateLimiter of the client.
+	 */
+	static synchronized AmazonCloudWatch acquireCloudWatch(String key, String endpoint, String accessKey, String secretKey, String roleArn, String stsEndpoint) {
+		SharedClient shared = CLIENTS.get(key);
+		if (shared == null) {
+			final String credentialsKey = "credentials|" + credentialsKey(accessKey, secretKey, roleArn, stsEndpoint);
+			AWSCredentialsProvider credentials = acquireCredentials(credentialsKey, accessKey, secretKey, roleArn, stsEndpoint);
+			final AmazonCloudWatch client = AmazonCloudWatchClientBuilder.standard()
+					.withCredentials(credentials)
+					.withClientConfiguration(new ClientConfiguration().withRetryPolicy(AdaptiveRateLimiter.RETRY_POLICY))
+					.withEndpointConfiguration(new EndpointConfiguration(endpoint, getSigningRegion(endpoint, "monitoring")))
+					.build();
+			shared = new SharedClient(client, new Runnable() {
+				@Override
+				public void run() {
+					client.shutdown();
+					release(credentialsKey);
+				}
+			});
+			CLIENTS.put(key, shared);
+		}
+		shared.references++;
+		return (AmazonCloudWatch) shared.client;
+	}
+
+	/**
+	 * Get the region signing the requests sent to an endpoint, parsed from its host name as setEndpoint does in the SDK:
+	 * the requests to https://monitoring.eu-west-1.amazonaws.com are signed for eu-west-1, those to a global endpoint for us-east-1.
+	 * @param serviceName prefix of the host names of the service, e.g. monitoring
+	 */
+	@SuppressWarnings("deprecation")
+	static String getSigningRegion(String endpoint, String serviceName) {
+		String host = endpoint.contains("://") ? URI.create(endpoint).getHost() : endpoint.split("/")[0];
+		return AwsHostNameUtils.parseRegionName(host == null ? endpoint : host, serviceName);
+	}
+
+	/**
+	 * Get the Data Exchange client registered under the key returned by dataExchangeKey, creating it if needed.
+	 */
+	static synchronized DataExchangeAPIClient acquireDataExchange(String key, String host) throws GeneralSecurityException, IOException, ODataException, URISyntaxException, NeotysAPIException {
+		SharedClient shared = CLIENTS.get(key);
+		if (shared == null) {
+			DataExchangeAPIClient client = DataExchangeAPIClientFactory.newClient("http://"+ host +":7400/DataExchange/v1/Service.svc/");
+			//The Data Exchange client holds no resource to release
+			shared = new SharedClient(client, new Runnable() {
+				@Override
+				public void run() {
+				}
+			});
+			CLIENTS.put(key, shared);
+		}
+		shared.references++;
+		return (DataExchangeAPIClient) shared.client;
+	}
+
+	/**
+	 * Get the credentials registered under the given key, creating them if needed. Without role, the access key is used directly.
+	 * With a role, the role is assumed once with STS for all the clients of all the regions using it,
+	 * and the session credentials are cached and refreshed by the provider before they expire.
+	 */
+	private static AWSCredentialsProvider acquireCredentials(String key, String accessKey, String secretKey, String roleArn, String stsEndpoint) {
+		SharedClient shared = CLIENTS.get(key);
+		if (shared == null) {
+			AWSCredentialsProvider longLivedCredentials = new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKey, secretKey));
+			if (roleArn == null || roleArn.isEmpty()) {
+				shared = new SharedClient(longLivedCredentials, new Runnable() {
+					@Override
+					public void run() {
+					}
+				});
+			} else {
+				AWSSecurityTokenServiceClientBuilder stsBuilder = AWSSecurityTokenServiceClientBuilder.standard()
+						.withCredentials(longLivedCredentials);
+				if (stsEndpoint == null || stsEndpoint.isEmpty()) {
+					stsBuilder.withRegion(STS_GLOBAL_REGION);
+				} else {
+					//A regional endpoint only accepts requests signed for its own region
+					stsBuilder.withEndpointConfiguration(new EndpointConfiguration(stsEndpoint, getSigningRegion(stsEndpoint, "sts")));
+				}
+				final AWSSecurityTokenService stsClient = stsBuilder.build();
+				final STSAssumeRoleSessionCredentialsProvider provider = new STSAssumeRoleSessionCredentialsProvider.Builder(roleArn, ROLE_SESSION_NAME)
+						.withStsClient(stsClient)
+						.build();
+				shared = new SharedClient(provider, new Runnable() {
+					@Override
+					public void run() {
+						provider.close();
+						stsClient.shutdown();
+					}
+				});
+			}
+			CLIENTS.put(key, shared);
+		}
+		shared.references++;
+		return (AWSCredentialsProvider) shared.client;
+	}
+
+	/**
+	 * Release a client acquired with the given key, and shut it down if it is not used anymore.
+	 */
+	static synchronized void release(String key) {
+		SharedClient shared = CLIENTS.get(key);
+		if (shared == null) {
+			return;
+		}
+		shared.references--;
+		if (shared.references <= 0) {
+			CLIENTS.remove(key);
+			shared.shutdown.run();
+		}
+	}
+}
@@ -3,41 +3,50 @@ package com.neotys.ps.aws.monitoring;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.olingo.odata2.api.exception.ODataException;
 
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.services.cloudwatch.AmazonCloudWatchClient;
-import com.amazonaws.services.cloudwatch.model.Datapoint;
-import com.amazonaws.services.cloudwatch.model.Dimension;
-import com.amazonaws.services.cloudwatch.model.GetMetricStatisticsRequest;
-import com.amazonaws.services.cloudwatch.model.GetMetricStatisticsResult;
-import com.amazonaws.services.cloudwatch.model.ListMetricsRequest;
-import com.amazonaws.services.cloudwatch.model.ListMetricsResult;
-import com.amazonaws.services.cloudwatch.model.Metric;
-import com.amazonaws.util.json.JSONException;
 import com.neotys.extensions.action.ActionParameter;
 import com.neotys.extensions.action.engine.ActionEngine;
 import com.neotys.extensions.action.engine.Context;
 import com.neotys.extensions.action.engine.SampleResult;
-import com.neotys.rest.dataexchange.client.DataExchangeAPIClient;
-import com.neotys.rest.dataexchange.client.DataExchangeAPIClientFactory;
-import com.neotys.rest.dataexchange.model.EntryBuilder;
 import com.neotys.rest.error.NeotysAPIException;
 
 public final class CloudWatchMonitoringActionEngine implements ActionEngine {
 
 	private String AWSEndpoint;
+	private List<String> awsRegions = Collections.emptyList();
 	private String awsAccessKey;
 	private String awsSecretKey;
+	private List<String> roleArns = Collections.emptyList();
+	private String stsEndpoint;
 	private int period = 60;
 	private String dataExchangeHost = "localhost";
 	private int startOffset = 6;
-	private static int datapointsCount;
+	private int dataExchangeBatchSize = DataExchangeEntryBuffer.DEFAULT_MAX_ENTRIES;
+	private int catalogTTL = MetricCatalog.DEFAULT_TTL_MINUTES;
+	private boolean refreshCatalog = false;
+	private boolean backgroundCollection = false;
+	private int collectionWorkers = MetricCollector.DEFAULT_WORKERS;
+	private double requestRate = MetricDataRetriever.DEFAULT_MAX_RATE;
+	private String includedNamespaces;
+	private String excludedNamespaces;
+	private String includedMetricNames;
+	private String excludedMetricNames;
+	private String includedDimensions;
+	private String excludedDimensions;
+	private boolean fullDimensions = false;
+	private List<String> statistics = Arrays.asList("Average");
+	
+	private String collectorKey;
+	private MetricCollector collector;
+	private String scheduledKey;
+	private ScheduledCollection scheduledCollection;
+	private final HighWaterMarks highWaterMarks = new HighWaterMarks();
 
 	private void parseParameters(List<ActionParameter> parameters) {
 		
@@ -46,12 +55,21 @@ public final class CloudWatchMonitoringActionEngine implements ActionEngine {
 			case "aws url":
 				AWSEndpoint = parameter.getValue();
 				break;
+			case "aws regions":
+				awsRegions = parseList(parameter.getValue());
+				break;
 			case "accesskey":
 				awsAccessKey = parameter.getValue();
 				break;
 			case "secretkey":
 				awsSecretKey = parameter.getValue();
 				break;
+			case "role arns":
+				roleArns = parseList(parameter.getValue());
+				break;
+			case "sts endpoint":
+				stsEndpoint = parameter.getValue();
+				break;
 			case "period":
 				period = Integer.parseInt(parameter.getValue())*60;
 				break;
@@ -61,113 +79,144 @@ public final class CloudWatchMonitoringActionEngine implements ActionEngine {
 			case "data exchange api client":
 				dataExchangeHost = parameter.getValue();
 				break;
+			case "data exchange batch size":
+				dataExchangeBatchSize = Integer.parseInt(parameter.getValue());
+				break;
+			case "metric catalog ttl":
+				catalogTTL = Integer.parseInt(parameter.getValue());
+				break;
+			case "refresh metric catalog":
+				refreshCatalog = Boolean.parseBoolean(parameter.getValue());
+				break;
+			case "background collection":
+				backgroundCollection = Boolean.parseBoolean(parameter.getValue());
+				break;
+			case "collection workers":
+				collectionWorkers = Integer.parseInt(parameter.getValue());
+				break;
+			case "requests per second":
+				requestRate = Double.parseDouble(parameter.getValue());
+				break;
+			case "namespaces":
+				includedNamespaces = parameter.getValue();
+				break;
+			case "excluded namespaces":
+				excludedNamespaces = parameter.getValue();
+				break;
+			case "metric names":
+				includedMetricNames = parameter.getValue();
+				break;
+			case "excluded metric names":
+				excludedMetricNames = parameter.getValue();
+				break;
+			case "dimensions":
+				includedDimensions = parameter.getValue();
+				break;
+			case "excluded dimensions":
+				excludedDimensions = parameter.getValue();
+				break;
+			case "full dimensions":
+				fullDimensions = Boolean.parseBoolean(parameter.getValue());
+				break;
+			case "statistics":
+				statistics = parseList(parameter.getValue());
+				if (statistics.isEmpty()) {
+					statistics = Arrays.asList("Average");
+				}
+				break;
 			default :
 				break;
 			}
 		}
 	}
 
-	private static void traceMetrics (AmazonCloudWatchClient awsClient,ListMetricsResult listMetrics, Date startTime, Date endTime, int period, DataExchangeAPIClient dataExchangeAPIClient) throws JSONException, GeneralSecurityException, IOException, ODataException, URISyntaxException, NeotysAPIException{
-		List<Metric> metrics = listMetrics.getMetrics();
-		List<String> stats = Arrays.asList("Average") ;
-		
-		//Parcours des métriques
-		for (int i = 0; i < metrics.size(); i++){
-			String metricName = metrics.get(i).getMetricName();
-			String namespace = metrics.get(i).getNamespace();
-			List<Dimension> metricDimensions = metrics.get(i).getDimensions();
-			GetMetricStatisticsRequest statRequest = new GetMetricStatisticsRequest();
-			statRequest.setMetricName(metricName);
-			statRequest.setNamespace(namespace);
-			statRequest.setEndTime(endTime);
-			statRequest.setStartTime(startTime);
-			statRequest.setPeriod(period);
-			statRequest.setStatistics(stats);
-			
-			//Parcours des dimensions
-			for (int j = 0; j < metricDimensions.size(); j++) {
-				String dimensionName = metricDimensions.get(j).getName();
-				String dimensionValue = metricDimensions.get(j).getValue();
-				
-				statRequest.setDimensions(Arrays.asList(metricDimensions.get(j)));
-				
-				GetMetricStatisticsResult statMetrics = awsClient.getMetricStatistics(statRequest);
-				
-				List<Datapoint> datapoints = statMetrics.getDatapoints();
-				//Parcours des points de mesure
-				
-				for (int k = 0; k < datapoints.size(); k++){
-					long timestamp = datapoints.get(k).getTimestamp().getTime();
-					
-					EntryBuilder eb = new EntryBuilder(Arrays.asList(namespace,dimensionName,dimensionValue,metricName), timestamp);
-					
-					eb.unit(datapoints.get(k).getUnit());
-					eb.value(datapoints.get(k).getAverage());
-					
-					dataExchangeAPIClient.addEntry(eb.build());
-					datapointsCount += 1;
-				}
+	private static List<String> parseList(String value) {
+		List<String> values = new ArrayList<String>();
+		for (String item : value.split(",")) {
+			if (!item.trim().isEmpty() && !values.contains(item.trim())) {
+				values.add(item.trim());
 			}
 		}
-
+		return values;
 	}
-	
+
 	@Override
 	public SampleResult execute(Context context, List<ActionParameter> parameters) {
 
 		SampleResult result = new SampleResult();
 		StringBuilder resultString = new StringBuilder();
 		
-		parseParameters(parameters);
-			
-		DataExchangeAPIClient dataExchangeAPIClient ;
-		BasicAWSCredentials awsCredentials = new BasicAWSCredentials(awsAccessKey, awsSecretKey);
-		AmazonCloudWatchClient awsClient = new AmazonCloudWatchClient(awsCredentials);
-		awsClient.setEndpoint(AWSEndpoint);
-		
-		Date endDate = new Date();
-		Calendar calendar = Calendar.getInstance();
-		calendar.setTime(endDate);
-		endDate = calendar.getTime();
-		calendar.add(Calendar.MINUTE, - startOffset);
-		Date startDate = calendar.getTime();
-		datapointsCount=0;
-		
 		try {
-				
-			dataExchangeAPIClient = DataExchangeAPIClientFactory.newClient("http://"+ dataExchangeHost +":7400/DataExchange/v1/Service.svc/");			
-	
-			//Récupération de la première page de métriques
-			ListMetricsRequest listRequest = new ListMetricsRequest();
-			String nextToken = "";
-	
-			//Parcours de toutes les métriques
-			while (nextToken!=null) {
-
-				ListMetricsResult availableMetrics = awsClient.listMetrics(listRequest);
-				
-				//Tracage des statistiques
-				traceMetrics(awsClient,availableMetrics, startDate, endDate, period, dataExchangeAPIClient);
-	
-				nextToken = availableMetrics.getNextToken();
-				listRequest.setNextToken(nextToken);
+			parseParameters(parameters);
+			MetricFilter filter = new MetricFilter(includedNamespaces, excludedNamespaces, includedMetricNames, excludedMetricNames, includedDimensions, excludedDimensions);
+			
+			//Collecte en tâche de fond : une seule collecte par endpoint, les itérations ne font que rapporter son état
+			if (backgroundCollection) {
+				if (scheduledCollection == null) {
+					MetricCollector newCollector = newCollector(filter);
+					scheduledCollection = ScheduledCollection.acquire(newCollector);
+					scheduledKey = newCollector.getEndpointKey();
+				}
+				if (refreshCatalog) {
+					scheduledCollection.refreshCatalog();
+				}
+				scheduledCollection.report(result);
+				return result;
 			}
-			} catch (GeneralSecurityException | IOException | ODataException
-					| URISyntaxException | NeotysAPIException | JSONException e) {
-				e.printStackTrace();
+			
+			//Les clients AWS et Data Exchange sont partagés avec les autres utilisateurs virtuels, le collecteur n'est recréé que si les réglages changent
+			String key = MetricCollector.getSettingsKey(awsRegions, AWSEndpoint, roleArns, stsEndpoint, awsAccessKey, awsSecretKey, period, startOffset, dataExchangeHost, dataExchangeBatchSize, catalogTTL, collectionWorkers, requestRate, filter, fullDimensions, statistics);
+			if (!key.equals(collectorKey)) {
+				closeCollector();
+				MetricCollector newCollector = newCollector(filter);
+				newCollector.open();
+				collector = newCollector;
+				collectorKey = key;
 			}
+			
+			//Une région ou un compte en échec n'arrête pas la collecte des autres, mais l'itération est en erreur
+			if (!collector.collect(refreshCatalog, resultString)) {
+				result.setError(true);
+				result.setStatusCode("NL-CloudWatchMonitoring-PartialFailure");
+			}
+		} catch (IllegalArgumentException e) {
+			//Paramètre invalide, ou collecte en tâche de fond des mêmes endpoints déjà lancée avec d'autres réglages
+			result.setError(true);
+			result.setStatusCode("NL-CloudWatchMonitoring-ERROR");
+			resultString.append(e.getMessage()).append("\n");
+		} catch (GeneralSecurityException | IOException | ODataException
+				| URISyntaxException | NeotysAPIException | RuntimeException e) {
+			//Erreurs AWS (AmazonServiceException, AmazonClientException) et Data Exchange
+			result.setError(true);
+			result.setStatusCode("NL-CloudWatchMonitoring-ERROR");
+			resultString.append(e.getClass().getSimpleName()).append(": ").append(e.getMessage()).append("\n");
+			e.printStackTrace();
+		}
 		
-		
-		float executionTime = (new Date().getTime()) - endDate.getTime(); 
-		resultString.append(datapointsCount + " datapoints retrieved in "+ executionTime/1000 +" seconds.\n");
 		result.setResponseContent(resultString.toString());
 		return result;
 	}
 
+	private MetricCollector newCollector(MetricFilter filter) {
+		return new MetricCollector(awsRegions, AWSEndpoint, roleArns, stsEndpoint, awsAccessKey, awsSecretKey, period, startOffset, dataExchangeHost, dataExchangeBatchSize, catalogTTL, collectionWorkers, requestRate, filter, fullDimensions, statistics, highWaterMarks);
+	}
+
 	@Override
 	public void stopExecute() {
-		// TODO Auto-generated method stub
+		if (scheduledCollection != null) {
+			ScheduledCollection.release(scheduledKey);
+			scheduledCollection = null;
+			scheduledKey = null;
+		}
+		closeCollector();
+	}
 
+	private void closeCollector() {
+		if (collector != null) {
+			collector.close();
+			collector = null;
+			collectorKey = null;
+		}
 	}
 
 }
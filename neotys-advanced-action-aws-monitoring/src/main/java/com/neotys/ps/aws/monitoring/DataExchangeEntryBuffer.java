@@ -0,0 +1,92 @@
+package com.neotys.ps.aws.monitoring;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.neotys.rest.dataexchange.client.DataExchangeAPIClient;
+import com.neotys.rest.dataexchange.model.Entry;
+import com.neotys.rest.error.NeotysAPIException;
+
+/**
+ * Buffers Data Exchange entries and sends them to the controller with addEntries.
+ * The buffer is sent when it holds maxEntries entries, or when an entry is added while its oldest entry is older than maxDelay milliseconds.
+ * The age is only checked by add(): the owner of the buffer must call flush() once it stops adding entries,
+ * MetricCollector does it at the end of each collection.
+ * The high water marks of the entries are only moved once Data Exchange has accepted them: the entries of a failed request
+ * are retrieved again by the next collection.
+ */
+final class DataExchangeEntryBuffer {
+
+	static final int DEFAULT_MAX_ENTRIES = 500;
+	static final long DEFAULT_MAX_DELAY = 5000;
+
+	private final DataExchangeAPIClient dataExchangeAPIClient;
+	private final int maxEntries;
+	private final long maxDelay;
+	private final HighWaterMarks highWaterMarks;
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+	/** Path and timestamp of each buffered entry, in the same order as the entries. */
+	private final List<List<String>> paths = new ArrayList<List<String>>();
+	private final List<Long> timestamps = new ArrayList<Long>();
+	private long firstEntryTime;
+	private int entriesCount;
+	private int requestsCount;
+
+	/**
+	 * @param highWaterMarks marks moved to the timestamps of the entries once they have been sent
+	 */
+	DataExchangeEntryBuffer(DataExchangeAPIClient dataExchangeAPIClient, int maxEntries, long maxDelay, HighWaterMarks highWaterMarks) {
+		this.dataExchangeAPIClient = dataExchangeAPIClient;
+		this.maxEntries = Math.max(1, maxEntries);
+		this.maxDelay = maxDelay;
+		this.highWaterMarks = highWaterMarks;
+	}
+
+	/**
+	 * @param path counter path of the entry
+	 * @param timestamp timestamp of the entry, the high water mark of the path once the entry has been sent
+	 */
+	synchronized void add(Entry entry, List<String> path, long timestamp) throws GeneralSecurityException, IOException, URISyntaxException, NeotysAPIException {
+		if (entries.isEmpty()) {
+			firstEntryTime = System.currentTimeMillis();
+		}
+		entries.add(entry);
+		paths.add(path);
+		timestamps.add(timestamp);
+		entriesCount++;
+
+		if (entries.size() >= maxEntries || System.currentTimeMillis() - firstEntryTime >= maxDelay) {
+			flush();
+		}
+	}
+
+	/**
+	 * Send the buffered entries, then move the high water marks of their paths.
+	 * On failure the entries stay buffered and are sent with the next flush, their marks are not moved.
+	 */
+	synchronized void flush() throws GeneralSecurityException, IOException, URISyntaxException, NeotysAPIException {
+		if (entries.isEmpty()) {
+			return;
+		}
+		dataExchangeAPIClient.addEntries(new ArrayList<Entry>(entries));
+		requestsCount++;
+		for (int i = 0; i < paths.size(); i++) {
+			highWaterMarks.advance(paths.get(i), timestamps.get(i));
+		}
+		entries.clear();
+		paths.clear();
+		timestamps.clear();
+	}
+
+	synchronized int getEntriesCount() {
+		return entriesCount;
+	}
+
+	synchronized int getRequestsCount() {
+		return requestsCount;
+	}
+}
@@ -0,0 +1,33 @@
+package com.neotys.ps.aws.monitoring;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timestamp of the last datapoint delivered to Data Exchange for each counter path.
+ */
+final class HighWaterMarks {
+
+	private final Map<List<String>, Long> marks = new HashMap<List<String>, Long>();
+
+	/**
+	 * @return the timestamp of the last datapoint delivered for the path, or null if none was delivered yet
+	 */
+	synchronized Long get(List<String> path) {
+		return marks.get(path);
+	}
+
+	/**
+	 * Move the mark of the path to the given timestamp.
+	 * @return false if a datapoint with the same or a later timestamp was already delivered for the path
+	 */
+	synchronized boolean advance(List<String> path, long timestamp) {
+		Long mark = marks.get(path);
+		if (mark != null && timestamp <= mark) {
+			return false;
+		}
+		marks.put(path, timestamp);
+		return true;
+	}
+}
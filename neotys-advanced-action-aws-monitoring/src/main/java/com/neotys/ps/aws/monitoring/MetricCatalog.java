@@ -0,0 +1,125 @@
+package com.neotys.ps.aws.monitoring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.ListMetricsRequest;
+import com.amazonaws.services.cloudwatch.model.ListMetricsResult;
+import com.amazonaws.services.cloudwatch.model.Metric;
+
+/**
+ * Cache of the metrics listed by ListMetrics for one set of credentials and endpoint, and one set of ListMetrics requests.
+ * The first call lists the metrics synchronously. Once the catalog is older than its time to live,
+ * the cached metrics are still returned while a background thread lists them again.
+ */
+final class MetricCatalog {
+
+	static final int DEFAULT_TTL_MINUTES = 15;
+	/**
+	 * Maximum number of ListMetrics requests per second, the quota of ListMetrics being separate from the one of GetMetricData.
+	 */
+	static final double MAX_LIST_RATE = 25;
+
+	private static final Map<String, MetricCatalog> CATALOGS = new HashMap<String, MetricCatalog>();
+	private static final ExecutorService REFRESH_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "NL-CloudWatchMonitoring-catalog");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final List<ListMetricsRequest> listRequests;
+	private List<Metric> metrics;
+	private long listTime;
+	private boolean refreshing;
+
+	private MetricCatalog(List<ListMetricsRequest> listRequests) {
+		this.listRequests = listRequests;
+	}
+
+	/**
+	 * Get the catalog shared by all the engines using the client registered under the given key and the same ListMetrics requests.
+	 */
+	static synchronized MetricCatalog get(String clientKey, MetricFilter filter) {
+		String key = clientKey + "|" + filter.getListKey();
+		MetricCatalog catalog = CATALOGS.get(key);
+		if (catalog == null) {
+			catalog = new MetricCatalog(filter.getListRequests());
+			CATALOGS.put(key, catalog);
+		}
+		return catalog;
+	}
+
+	/**
+	 * Get the metrics of the catalog, listing them if the catalog is empty or if a refresh is forced.
+	 * @param rateLimiter limiter of the ListMetrics requests of the client
+	 * @param ttl time to live of the catalog, in milliseconds
+	 */
+	List<Metric> getMetrics(final AmazonCloudWatch awsClient, final AdaptiveRateLimiter rateLimiter, long ttl, boolean forceRefresh) {
+		synchronized (this) {
+			if (metrics != null && !forceRefresh) {
+				if (System.currentTimeMillis() - listTime >= ttl && !refreshing) {
+					refreshing = true;
+					REFRESH_EXECUTOR.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								update(listMetrics(awsClient, rateLimiter, listRequests));
+							} catch (RuntimeException e) {
+								//Keep the current metrics, the next expired call will try again.
+								//This includes a client shut down by its last user while listing.
+								e.printStackTrace();
+							} finally {
+								synchronized (MetricCatalog.this) {
+									refreshing = false;
+								}
+							}
+						}
+					});
+				}
+				return metrics;
+			}
+		}
+		List<Metric> listedMetrics = listMetrics(awsClient, rateLimiter, listRequests);
+		update(listedMetrics);
+		return listedMetrics;
+	}
+
+	private synchronized void update(List<Metric> listedMetrics) {
+		metrics = listedMetrics;
+		listTime = System.currentTimeMillis();
+	}
+
+	private static List<Metric> listMetrics(final AmazonCloudWatch awsClient, AdaptiveRateLimiter rateLimiter, List<ListMetricsRequest> listRequests) {
+		List<Metric> listedMetrics = new ArrayList<Metric>();
+		for (ListMetricsRequest template : listRequests) {
+			//Copie de la requête pour ne pas partager le nextToken entre deux listes
+			final ListMetricsRequest listRequest = template.clone();
+			String nextToken = "";
+
+			//Parcours de toutes les pages de métriques
+			while (nextToken != null) {
+				ListMetricsResult availableMetrics = rateLimiter.execute(new AdaptiveRateLimiter.Request<ListMetricsResult>() {
+					@Override
+					public ListMetricsResult send() {
+						return awsClient.listMetrics(listRequest);
+					}
+				});
+				listedMetrics.addAll(availableMetrics.getMetrics());
+
+				nextToken = availableMetrics.getNextToken();
+				listRequest.setNextToken(nextToken);
+			}
+		}
+		return Collections.unmodifiableList(listedMetrics);
+	}
+}
@@ -0,0 +1,494 @@
+package com.neotys.ps.aws.monitoring;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.olingo.odata2.api.exception.ODataException;
+
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.Metric;
+import com.neotys.rest.dataexchange.client.DataExchangeAPIClient;
+import com.neotys.rest.error.NeotysAPIException;
+
+/**
+ * Collects the CloudWatch statistics of one endpoint, or of a list of regions, for one account or a list of assumed roles,
+ * and sends them to Data Exchange.
+ * A collector is created with its settings, then opened to get the shared clients and reused for each collection.
+ */
+final class MetricCollector {
+
+	static final int DEFAULT_WORKERS = 4;
+
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	/**
+	 * A CloudWatch endpoint collected by the collector with an account, with its client and the prefix of its counter paths.
+	 */
+	private static final class Target {
+		private final List<String> pathPrefix;
+		private final String endpoint;
+		private final String roleArn;
+		private String clientKey;
+		private AmazonCloudWatch client;
+		private AdaptiveRateLimiter rateLimiter;
+		private AdaptiveRateLimiter listRateLimiter;
+
+		private Target(List<String> pathPrefix, String endpoint, String roleArn) {
+			this.pathPrefix = pathPrefix;
+			this.endpoint = endpoint;
+			this.roleArn = roleArn;
+		}
+	}
+
+	private final List<Target> targets;
+	private final String awsAccessKey;
+	private final String awsSecretKey;
+	private final String stsEndpoint;
+	private final int period;
+	private final int startOffset;
+	private final String dataExchangeHost;
+	private final int dataExchangeBatchSize;
+	private final int catalogTTL;
+	private final int workers;
+	private final double requestRate;
+	private final MetricFilter filter;
+	private final boolean fullDimensions;
+	private final List<String> statistics;
+	private final HighWaterMarks highWaterMarks;
+
+	private String dataExchangeClientKey;
+	private DataExchangeAPIClient dataExchangeAPIClient;
+	private ExecutorService executor;
+
+	/**
+	 * @param regions regions to collect, each region being the first segment of the paths of its counters. When empty, the awsEndpoint is collected
+	 * @param awsEndpoint endpoint to collect when no region is given
+	 * @param roleArns roles to assume with the access key, each account being collected in parallel with the account id as the first segment of the paths of its counters.
+	 * When empty, the account of the access key is collected
+	 * @param stsEndpoint endpoint of STS used to assume the roles, null or empty for the global endpoint
+	 * @param period granularity of the datapoints, in seconds
+	 * @param startOffset number of minutes retrieved by each collection
+	 * @param catalogTTL time to live of the metric catalog, in minutes
+	 * @param workers number of threads retrieving the metrics in parallel
+	 * @param requestRate maximum number of GetMetricData requests per second, shared by all the collectors of the endpoint
+	 * @param filter rules selecting the metrics to collect
+	 * @param fullDimensions true to query each metric with all its dimensions, false to query it once for each of its dimensions
+	 * @param statistics statistics and extended statistics (p90, p99.9...) retrieved for each metric
+	 */
+	MetricCollector(List<String> regions, String awsEndpoint, List<String> roleArns, String stsEndpoint, String awsAccessKey, String awsSecretKey, int period, int startOffset, String dataExchangeHost, int dataExchangeBatchSize, int catalogTTL, int workers, double requestRate, MetricFilter filter, boolean fullDimensions, List<String> statistics, HighWaterMarks highWaterMarks) {
+		this.targets = getTargets(regions, awsEndpoint, roleArns);
+		this.stsEndpoint = stsEndpoint;
+		this.awsAccessKey = awsAccessKey;
+		this.awsSecretKey = awsSecretKey;
+		this.period = period;
+		this.startOffset = startOffset;
+		this.dataExchangeHost = dataExchangeHost;
+		this.dataExchangeBatchSize = dataExchangeBatchSize;
+		this.catalogTTL = catalogTTL;
+		this.workers = Math.max(1, workers);
+		this.requestRate = requestRate;
+		this.filter = filter;
+		this.fullDimensions = fullDimensions;
+		this.statistics = statistics;
+		this.highWaterMarks = highWaterMarks;
+	}
+
+	private static List<Target> getTargets(List<String> regions, String awsEndpoint, List<String> roleArns) {
+		List<Target> targets = new ArrayList<Target>();
+		List<String> accounts = roleArns.isEmpty() ? Collections.<String>singletonList(null) : roleArns;
+		for (String roleArn : accounts) {
+			List<String> accountPrefix = roleArn == null ? Collections.<String>emptyList() : Collections.singletonList(ClientRegistry.getAccountId(roleArn));
+			if (regions.isEmpty()) {
+				targets.add(new Target(accountPrefix, awsEndpoint, roleArn));
+			}
+			for (String region : regions) {
+				List<String> pathPrefix = new ArrayList<String>(accountPrefix);
+				pathPrefix.add(region);
+				targets.add(new Target(pathPrefix, getRegionEndpoint(region), roleArn));
+			}
+		}
+		return targets;
+	}
+
+	static String getRegionEndpoint(String region) {
+		return "https://monitoring." + region + ".amazonaws.com" + (region.startsWith("cn-") ? ".cn" : "");
+	}
+
+	/**
+	 * Key of the endpoints and credentials of the collector: at most one background collection runs per key.
+	 */
+	String getEndpointKey() {
+		return getEndpointKey(targets, stsEndpoint, awsAccessKey, awsSecretKey);
+	}
+
+	private static String getEndpointKey(List<Target> targets, String stsEndpoint, String awsAccessKey, String awsSecretKey) {
+		StringBuilder key = new StringBuilder();
+		for (Target target : targets) {
+			key.append(ClientRegistry.cloudWatchKey(target.endpoint, awsAccessKey, awsSecretKey, target.roleArn, stsEndpoint)).append(';');
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Key of all the settings of the collector: a collector can be reused as long as the key does not change.
+	 */
+	String getSettingsKey() {
+		return getSettingsKey(getEndpointKey(), dataExchangeHost, period, startOffset, dataExchangeBatchSize, catalogTTL, workers, requestRate, filter, fullDimensions, statistics);
+	}
+
+	/**
+	 * Key of the settings of a collector, computed without creating the collector: the parameters are those of the constructor.
+	 */
+	static String getSettingsKey(List<String> regions, String awsEndpoint, List<String> roleArns, String stsEndpoint, String awsAccessKey, String awsSecretKey, int period, int startOffset, String dataExchangeHost, int dataExchangeBatchSize, int catalogTTL, int workers, double requestRate, MetricFilter filter, boolean fullDimensions, List<String> statistics) {
+		String endpointKey = getEndpointKey(getTargets(regions, awsEndpoint, roleArns), stsEndpoint, awsAccessKey, awsSecretKey);
+		return getSettingsKey(endpointKey, dataExchangeHost, period, startOffset, dataExchangeBatchSize, catalogTTL, Math.max(1, workers), requestRate, filter, fullDimensions, statistics);
+	}
+
+	private static String getSettingsKey(String endpointKey, String dataExchangeHost, int period, int startOffset, int dataExchangeBatchSize, int catalogTTL, int workers, double requestRate, MetricFilter filter, boolean fullDimensions, List<String> statistics) {
+		return endpointKey + "|" + ClientRegistry.dataExchangeKey(dataExchangeHost) + "|" + period + "|" + startOffset + "|" + dataExchangeBatchSize + "|" + catalogTTL + "|" + workers + "|" + requestRate + "|" + filter.getKey() + "|" + fullDimensions + "|" + statistics;
+	}
+
+	int getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Get the AWS and Data Exchange clients shared with the other virtual users, and start the threads of the collector.
+	 * Each region of each account has its own client and its own rate limiter, the CloudWatch quotas being defined per region and account.
+	 * The roles are assumed once for all their regions.
+	 */
+	void open() throws GeneralSecurityException, IOException, ODataException, URISyntaxException, NeotysAPIException {
+		try {
+			for (Target target : targets) {
+				String key = ClientRegistry.cloudWatchKey(target.endpoint, awsAccessKey, awsSecretKey, target.roleArn, stsEndpoint);
+				target.client = ClientRegistry.acquireCloudWatch(key, target.endpoint, awsAccessKey, awsSecretKey, target.roleArn, stsEndpoint);
+				target.clientKey = key;
+				target.rateLimiter = AdaptiveRateLimiter.get(key, requestRate);
+				target.listRateLimiter = AdaptiveRateLimiter.get(key + "|ListMetrics", MetricCatalog.MAX_LIST_RATE);
+			}
+			String key = ClientRegistry.dataExchangeKey(dataExchangeHost);
+			dataExchangeAPIClient = ClientRegistry.acquireDataExchange(key, dataExchangeHost);
+			dataExchangeClientKey = key;
+		} catch (GeneralSecurityException | IOException | ODataException | URISyntaxException | NeotysAPIException | RuntimeException e) {
+			close();
+			throw e;
+		}
+		executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "NL-CloudWatchMonitoring-worker-" + THREAD_COUNT.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Stop the threads and release the clients of the collector.
+	 */
+	void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		for (Target target : targets) {
+			if (target.clientKey != null) {
+				ClientRegistry.release(target.clientKey);
+				target.clientKey = null;
+				target.client = null;
+				target.rateLimiter = null;
+				target.listRateLimiter = null;
+			}
+		}
+		if (dataExchangeClientKey != null) {
+			ClientRegistry.release(dataExchangeClientKey);
+			dataExchangeClientKey = null;
+			dataExchangeAPIClient = null;
+		}
+	}
+
+	/**
+	 * Retrieve the statistics of the last startOffset minutes and send the new datapoints to Data Exchange.
+	 * The metrics of each region and account are split by namespace, and large namespaces in shards of one GetMetricData request,
+	 * each shard being retrieved by one of the threads of the collector.
+	 * The failure of a region or an account is reported in the result without stopping the others:
+	 * the collection only throws when all of them fail.
+	 * @param refreshCatalog true to list the available metrics again
+	 * @param resultString receives the summary of the collection
+	 * @return false if a region or an account failed, or if datapoints could not be sent to Data Exchange
+	 */
+	boolean collect(final boolean refreshCatalog, StringBuilder resultString) throws GeneralSecurityException, IOException, URISyntaxException, NeotysAPIException {
+		Date endDate = new Date();
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(endDate);
+		endDate = calendar.getTime();
+		calendar.add(Calendar.MINUTE, - startOffset);
+		final Date startDate = calendar.getTime();
+		final Date shardEndDate = endDate;
+
+		final DataExchangeEntryBuffer entryBuffer = new DataExchangeEntryBuffer(dataExchangeAPIClient, dataExchangeBatchSize, DataExchangeEntryBuffer.DEFAULT_MAX_DELAY, highWaterMarks);
+		final List<MetricDataRetriever> retrievers = new ArrayList<MetricDataRetriever>();
+		final Map<Target, Throwable> failures = new LinkedHashMap<Target, Throwable>();
+		int metricsCount = 0;
+		int queriesCount = 0;
+		boolean delivered = false;
+		try {
+			//Récupération des métriques de chaque région et compte en parallèle depuis son catalogue, ListMetrics n'est rappelé qu'à son expiration.
+			//Les règles que ListMetrics ne peut pas appliquer sont appliquées sur le catalogue.
+			List<Future<List<Metric>>> catalogs = new ArrayList<Future<List<Metric>>>();
+			for (final Target target : targets) {
+				catalogs.add(executor.submit(new Callable<List<Metric>>() {
+					@Override
+					public List<Metric> call() {
+						return filter.filter(MetricCatalog.get(target.clientKey, filter).getMetrics(target.client, target.listRateLimiter, catalogTTL * 60000L, refreshCatalog));
+					}
+				}));
+			}
+
+			//Tracage des statistiques, un retriever par shard. Une région ou un compte en échec n'empêche pas l'export des autres.
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			List<Target> futureTargets = new ArrayList<Target>();
+			for (int i = 0; i < targets.size(); i++) {
+				Target target = targets.get(i);
+				Throwable catalogFailure = await(catalogs.get(i));
+				if (catalogFailure != null) {
+					failures.put(target, catalogFailure);
+					continue;
+				}
+				List<Metric> availableMetrics = getResult(catalogs.get(i));
+
+				//Une requête par chemin de compteur, les requêtes identiques de plusieurs métriques sont fusionnées
+				Map<List<String>, Metric> queries = getQueries(target.pathPrefix, availableMetrics, fullDimensions);
+				metricsCount += availableMetrics.size();
+				queriesCount += queries.size();
+
+				for (final List<Map.Entry<List<String>, Metric>> shard : getShards(queries, MetricDataRetriever.getMetricsPerRequest(statistics))) {
+					final MetricDataRetriever retriever = new MetricDataRetriever(target.client, entryBuffer, startDate, shardEndDate, period, statistics, highWaterMarks, target.rateLimiter);
+					retrievers.add(retriever);
+					futures.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							traceMetrics(retriever,shard);
+							//Récupération des dernières requêtes en attente
+							retriever.flush();
+							return null;
+						}
+					}));
+					futureTargets.add(target);
+				}
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				Throwable failure = await(futures.get(i));
+				if (failure != null && !failures.containsKey(futureTargets.get(i))) {
+					failures.put(futureTargets.get(i), failure);
+				}
+			}
+			if (!failures.isEmpty() && failures.size() == targets.size()) {
+				rethrow(failures.values().iterator().next());
+			}
+		} finally {
+			//Envoi des points en attente, y compris ceux récupérés avant un échec : le buffer n'est plus alimenté après la collecte
+			delivered = flushQuietly(entryBuffer, resultString);
+
+			int datapointsCount = 0;
+			int requestsCount = 0;
+			for (MetricDataRetriever retriever : retrievers) {
+				datapointsCount += retriever.getDatapointsCount();
+				requestsCount += retriever.getRequestsCount();
+			}
+			float executionTime = (new Date().getTime()) - endDate.getTime();
+			resultString.append(datapointsCount + " datapoints retrieved in "+ executionTime/1000 +" seconds.\n");
+			resultString.append(queriesCount + " queries for " + metricsCount + " metrics" + (fullDimensions ? " with all their dimensions" : " by dimension") + ", statistics " + statistics + ".\n");
+			resultString.append(requestsCount + " GetMetricData requests sent by " + workers + " threads for " + retrievers.size() + " shards.\n");
+			resultString.append(entryBuffer.getRequestsCount() + " Data Exchange requests sent.\n");
+			for (Map.Entry<Target, Throwable> failure : failures.entrySet()) {
+				Throwable e = failure.getValue();
+				resultString.append(getName(failure.getKey()) + " failed: " + e.getClass().getSimpleName() + ": " + e.getMessage() + "\n");
+				e.printStackTrace();
+			}
+			for (Target target : targets) {
+				if (target.rateLimiter == null) {
+					continue;
+				}
+				String name = target.pathPrefix.isEmpty() ? "GetMetricData" : String.join("/", target.pathPrefix) + " GetMetricData";
+				resultString.append(String.format("%s rate: %.1f requests per second (maximum %.1f), %d requests throttled.\n",name,target.rateLimiter.getRate(),target.rateLimiter.getMaxRate(),target.rateLimiter.getThrottledCount()));
+			}
+		}
+		return failures.isEmpty() && delivered;
+	}
+
+	/**
+	 * Get the query of each counter path. In full dimensions mode, each metric is queried once with all its dimensions,
+	 * otherwise once for each of its dimensions. Queries with the same path are only sent once.
+	 * @param pathPrefix first segments of all the paths
+	 */
+	private static Map<List<String>, Metric> getQueries(List<String> pathPrefix, List<Metric> metrics, boolean fullDimensions) {
+		Map<List<String>, Metric> queries = new LinkedHashMap<List<String>, Metric>();
+		//Parcours des métriques
+		for (Metric metric : metrics) {
+			String metricName = metric.getMetricName();
+			String namespace = metric.getNamespace();
+			List<Dimension> metricDimensions = metric.getDimensions();
+
+			if (fullDimensions) {
+				queries.put(getPath(pathPrefix, namespace, metricName, metricDimensions), metric);
+				continue;
+			}
+
+			//Parcours des dimensions
+			for (Dimension dimension : metricDimensions) {
+				List<String> path = new ArrayList<String>(pathPrefix.size() + 4);
+				path.addAll(pathPrefix);
+				path.addAll(Arrays.asList(namespace,dimension.getName(),dimension.getValue(),metricName));
+				if (!queries.containsKey(path)) {
+					queries.put(path, new Metric()
+							.withNamespace(namespace)
+							.withMetricName(metricName)
+							.withDimensions(dimension));
+				}
+			}
+		}
+		return queries;
+	}
+
+	/**
+	 * Path of a metric queried with all its dimensions: the namespace, the name and value of each dimension sorted by name, and the metric name.
+	 * The path of a metric with a single dimension is the same as in the dimension by dimension mode.
+	 */
+	private static List<String> getPath(List<String> pathPrefix, String namespace, String metricName, List<Dimension> dimensions) {
+		List<Dimension> sortedDimensions = new ArrayList<Dimension>(dimensions);
+		Collections.sort(sortedDimensions, new Comparator<Dimension>() {
+			@Override
+			public int compare(Dimension first, Dimension second) {
+				return first.getName().compareTo(second.getName());
+			}
+		});
+		List<String> path = new ArrayList<String>(pathPrefix.size() + 2 * sortedDimensions.size() + 2);
+		path.addAll(pathPrefix);
+		path.add(namespace);
+		for (Dimension dimension : sortedDimensions) {
+			path.add(dimension.getName());
+			path.add(dimension.getValue());
+		}
+		path.add(metricName);
+		return path;
+	}
+
+	/**
+	 * Split the queries by namespace, in shards of at most shardSize queries.
+	 */
+	private static List<List<Map.Entry<List<String>, Metric>>> getShards(Map<List<String>, Metric> queries, int shardSize) {
+		Map<String, List<Map.Entry<List<String>, Metric>>> namespaces = new LinkedHashMap<String, List<Map.Entry<List<String>, Metric>>>();
+		for (Map.Entry<List<String>, Metric> query : queries.entrySet()) {
+			List<Map.Entry<List<String>, Metric>> namespaceQueries = namespaces.get(query.getValue().getNamespace());
+			if (namespaceQueries == null) {
+				namespaceQueries = new ArrayList<Map.Entry<List<String>, Metric>>();
+				namespaces.put(query.getValue().getNamespace(), namespaceQueries);
+			}
+			namespaceQueries.add(query);
+		}
+
+		List<List<Map.Entry<List<String>, Metric>>> shards = new ArrayList<List<Map.Entry<List<String>, Metric>>>();
+		for (List<Map.Entry<List<String>, Metric>> namespaceQueries : namespaces.values()) {
+			for (int i = 0; i < namespaceQueries.size(); i += shardSize) {
+				shards.add(namespaceQueries.subList(i, Math.min(namespaceQueries.size(), i + shardSize)));
+			}
+		}
+		return shards;
+	}
+
+	/**
+	 * @return the name of a region or account in the result, the endpoint when the collector has a single target
+	 */
+	private static String getName(Target target) {
+		return target.pathPrefix.isEmpty() ? target.endpoint : String.join("/", target.pathPrefix);
+	}
+
+	/**
+	 * Wait for a task.
+	 * @return the failure of the task, null if it succeeded
+	 */
+	private static Throwable await(Future<?> future) {
+		try {
+			future.get();
+			return null;
+		} catch (ExecutionException e) {
+			return e.getCause();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while retrieving the metrics", e);
+		}
+	}
+
+	/**
+	 * Throw the failure of a task: the checked exceptions of collect are thrown as is.
+	 */
+	private static void rethrow(Throwable failure) throws GeneralSecurityException, IOException, URISyntaxException, NeotysAPIException {
+		if (failure instanceof GeneralSecurityException) {
+			throw (GeneralSecurityException) failure;
+		} else if (failure instanceof IOException) {
+			throw (IOException) failure;
+		} else if (failure instanceof URISyntaxException) {
+			throw (URISyntaxException) failure;
+		} else if (failure instanceof NeotysAPIException) {
+			throw (NeotysAPIException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		throw new IllegalStateException(failure);
+	}
+
+	/**
+	 * Send the entries left in the buffer at the end of a collection, reporting a failure in the result
+	 * instead of hiding the failure of the collection itself.
+	 */
+	private static boolean flushQuietly(DataExchangeEntryBuffer entryBuffer, StringBuilder resultString) {
+		try {
+			entryBuffer.flush();
+			return true;
+		} catch (GeneralSecurityException | IOException | URISyntaxException | NeotysAPIException | RuntimeException e) {
+			resultString.append("Data Exchange error: " + e.getClass().getSimpleName() + ": " + e.getMessage() + "\n");
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Get the result of a task already awaited without failure by await.
+	 */
+	private static <T> T getResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException | InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void traceMetrics (MetricDataRetriever retriever,List<Map.Entry<List<String>, Metric>> queries) throws GeneralSecurityException, IOException, URISyntaxException, NeotysAPIException{
+		for (Map.Entry<List<String>, Metric> query : queries) {
+			Metric metric = query.getValue();
+			//Les requêtes sont regroupées par paquets dans GetMetricData
+			retriever.add(metric.getNamespace(), metric.getMetricName(), metric.getDimensions(), query.getKey());
+		}
+	}
+}
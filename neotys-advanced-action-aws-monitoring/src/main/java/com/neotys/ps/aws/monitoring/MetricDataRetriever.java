@@ -0,0 +1,185 @@
+package com.neotys.ps.aws.monitoring;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.Metric;
+import com.amazonaws.services.cloudwatch.model.MetricDataQuery;
+import com.amazonaws.services.cloudwatch.model.MetricDataResult;
+import com.amazonaws.services.cloudwatch.model.MetricStat;
+import com.amazonaws.services.cloudwatch.model.ScanBy;
+import com.neotys.rest.dataexchange.model.EntryBuilder;
+import com.neotys.rest.error.NeotysAPIException;
+
+/**
+ * Retrieves CloudWatch statistics with GetMetricData, packing up to MAX_QUERIES_PER_REQUEST
+ * metric queries in each request, and buffers the datapoints for the Data Exchange API.
+ * Each metric is queried once per statistic, in the same request.
+ */
+final class MetricDataRetriever {
+
+	/** Maximum number of MetricDataQuery accepted by CloudWatch in a single GetMetricData request. */
+	static final int MAX_QUERIES_PER_REQUEST = 500;
+	/** Default maximum number of GetMetricData requests per second, the default CloudWatch quota. */
+	static final double DEFAULT_MAX_RATE = 50;
+
+	private final AmazonCloudWatch awsClient;
+	private final DataExchangeEntryBuffer entryBuffer;
+	private final Date startTime;
+	private final Date endTime;
+	private final int period;
+	private final List<String> statistics;
+	private final HighWaterMarks highWaterMarks;
+	private final AdaptiveRateLimiter rateLimiter;
+
+	private final List<MetricDataQuery> queries = new ArrayList<MetricDataQuery>();
+	private final List<List<String>> paths = new ArrayList<List<String>>();
+	private int requestsCount;
+	private int datapointsCount;
+
+	MetricDataRetriever(AmazonCloudWatch awsClient, DataExchangeEntryBuffer entryBuffer, Date startTime, Date endTime, int period, List<String> statistics, HighWaterMarks highWaterMarks, AdaptiveRateLimiter rateLimiter) {
+		this.awsClient = awsClient;
+		this.entryBuffer = entryBuffer;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.period = period;
+		this.statistics = statistics;
+		this.highWaterMarks = highWaterMarks;
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Queue the queries of a metric restricted to the given dimensions, one per statistic. The datapoints are sent with the given counter path,
+	 * followed by the name of the statistic when several statistics are retrieved.
+	 * The queued queries are retrieved as soon as a request is full.
+	 */
+	void add(String namespace, String metricName, List<Dimension> dimensions, List<String> path) throws GeneralSecurityException, IOException, URISyntaxException, NeotysAPIException {
+		Metric metric = new Metric()
+				.withNamespace(namespace)
+				.withMetricName(metricName)
+				.withDimensions(dimensions);
+
+		for (String statistic : statistics) {
+			//Query ids must start with a lower case letter and be unique in a request
+			queries.add(new MetricDataQuery()
+					.withId("q" + queries.size())
+					.withMetricStat(new MetricStat()
+							.withMetric(metric)
+							.withPeriod(period)
+							.withStat(statistic))
+					.withReturnData(true));
+			paths.add(getPath(path, statistic));
+		}
+
+		//Les statistiques d'une métrique sont envoyées dans la même requête, la requête part dès qu'elle ne peut plus recevoir une métrique
+		if (queries.size() + statistics.size() > MAX_QUERIES_PER_REQUEST) {
+			flush();
+		}
+	}
+
+	/**
+	 * Retrieve all the queued queries, following the pagination of the results.
+	 * Only the datapoints newer than the high water mark of their counter are sent to Data Exchange,
+	 * and the request starts at the oldest high water mark of the batch rather than at the start time when possible.
+	 * The marks are moved by the entry buffer once Data Exchange has accepted the datapoints.
+	 * The datapoint of the period still in progress at the end time is left for the next collection, once its value is final.
+	 */
+	void flush() throws GeneralSecurityException, IOException, URISyntaxException, NeotysAPIException {
+		if (queries.isEmpty()) {
+			return;
+		}
+
+		final GetMetricDataRequest request = new GetMetricDataRequest()
+				.withMetricDataQueries(queries)
+				.withStartTime(getBatchStartTime())
+				.withEndTime(endTime)
+				.withScanBy(ScanBy.TimestampAscending);
+		String nextToken = null;
+		do {
+			//Le quota de requêtes par seconde est partagé par tous les utilisateurs du client, les requêtes limitées par AWS sont renvoyées
+			request.setNextToken(nextToken);
+			GetMetricDataResult result = rateLimiter.execute(new AdaptiveRateLimiter.Request<GetMetricDataResult>() {
+				@Override
+				public GetMetricDataResult send() {
+					return awsClient.getMetricData(request);
+				}
+			});
+			requestsCount++;
+
+			for (MetricDataResult metricResult : result.getMetricDataResults()) {
+				List<String> path = paths.get(Integer.parseInt(metricResult.getId().substring(1)));
+				List<Date> timestamps = metricResult.getTimestamps();
+				List<Double> values = metricResult.getValues();
+				Long mark = highWaterMarks.get(path);
+
+				for (int k = 0; k < timestamps.size(); k++) {
+					long timestamp = timestamps.get(k).getTime();
+					//Ce point a déjà été envoyé lors d'une itération précédente
+					if (mark != null && timestamp <= mark) {
+						continue;
+					}
+					//La période de ce point n'est pas terminée : sa valeur est encore partielle
+					if (timestamp + period * 1000L > endTime.getTime()) {
+						continue;
+					}
+					EntryBuilder eb = new EntryBuilder(path, timestamp);
+					eb.value(values.get(k));
+
+					entryBuffer.add(eb.build(), path, timestamp);
+					datapointsCount += 1;
+				}
+			}
+			nextToken = result.getNextToken();
+		} while (nextToken != null);
+
+		queries.clear();
+		paths.clear();
+	}
+
+	private List<String> getPath(List<String> path, String statistic) {
+		//Avec une seule statistique, le compteur garde le nom de la métrique
+		if (statistics.size() == 1) {
+			return path;
+		}
+		List<String> statisticPath = new ArrayList<String>(path.size() + 1);
+		statisticPath.addAll(path);
+		statisticPath.add(statistic);
+		return statisticPath;
+	}
+
+	/**
+	 * @return the number of metrics queried in each full request
+	 */
+	static int getMetricsPerRequest(List<String> statistics) {
+		return Math.max(1, MAX_QUERIES_PER_REQUEST / statistics.size());
+	}
+
+	private Date getBatchStartTime() {
+		long batchStart = Long.MAX_VALUE;
+		for (List<String> path : paths) {
+			Long mark = highWaterMarks.get(path);
+			if (mark == null || mark < startTime.getTime()) {
+				return startTime;
+			}
+			batchStart = Math.min(batchStart, mark + 1);
+		}
+		//The start time must stay before the end time, the datapoints already sent are skipped anyway
+		return new Date(Math.min(batchStart, endTime.getTime() - period * 1000L));
+	}
+
+	int getRequestsCount() {
+		return requestsCount;
+	}
+
+	int getDatapointsCount() {
+		return datapointsCount;
+	}
+}
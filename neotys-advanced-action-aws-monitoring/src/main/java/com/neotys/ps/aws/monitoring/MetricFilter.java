@@ -0,0 +1,233 @@
+package com.neotys.ps.aws.monitoring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.DimensionFilter;
+import com.amazonaws.services.cloudwatch.model.ListMetricsRequest;
+import com.amazonaws.services.cloudwatch.model.Metric;
+
+/**
+ * Include and exclude rules on the namespace, the metric name and the dimensions of the metrics to collect.
+ * Each rule is a comma separated list of globs, where * matches any sequence of characters and ? any single character.
+ * Dimension rules are written name=value, or name alone to match any value.
+ * A metric is collected if it matches at least one rule of each include list, and no rule of the exclude lists.
+ * The rules that ListMetrics can apply itself (exact namespaces, a single exact metric name, a single exact dimension)
+ * are sent in the ListMetrics requests, the others are applied to the listed metrics.
+ */
+final class MetricFilter {
+
+	private final String key;
+	private final List<String> includedNamespaces;
+	private final List<String> excludedNamespaces;
+	private final List<String> includedMetricNames;
+	private final List<String> excludedMetricNames;
+	private final List<String> includedDimensions;
+	private final List<String> excludedDimensions;
+
+	private final List<Pattern> includedNamespacePatterns;
+	private final List<Pattern> excludedNamespacePatterns;
+	private final List<Pattern> includedMetricNamePatterns;
+	private final List<Pattern> excludedMetricNamePatterns;
+	private final List<Pattern[]> includedDimensionPatterns;
+	private final List<Pattern[]> excludedDimensionPatterns;
+
+	/**
+	 * @param includedNamespaces comma separated list of namespaces to collect, null or empty to collect all the namespaces
+	 * @param excludedNamespaces comma separated list of namespaces not to collect
+	 * @param includedMetricNames comma separated list of metric names to collect, null or empty to collect all the metrics
+	 * @param excludedMetricNames comma separated list of metric names not to collect
+	 * @param includedDimensions comma separated list of dimensions of the metrics to collect, null or empty to collect all the dimensions
+	 * @param excludedDimensions comma separated list of dimensions of the metrics not to collect
+	 */
+	MetricFilter(String includedNamespaces, String excludedNamespaces, String includedMetricNames, String excludedMetricNames, String includedDimensions, String excludedDimensions) {
+		this.includedNamespaces = split(includedNamespaces);
+		this.excludedNamespaces = split(excludedNamespaces);
+		this.includedMetricNames = split(includedMetricNames);
+		this.excludedMetricNames = split(excludedMetricNames);
+		this.includedDimensions = split(includedDimensions);
+		this.excludedDimensions = split(excludedDimensions);
+		this.key = this.includedNamespaces + "|" + this.excludedNamespaces + "|" + this.includedMetricNames + "|" + this.excludedMetricNames + "|" + this.includedDimensions + "|" + this.excludedDimensions;
+
+		this.includedNamespacePatterns = toPatterns(this.includedNamespaces);
+		this.excludedNamespacePatterns = toPatterns(this.excludedNamespaces);
+		this.includedMetricNamePatterns = toPatterns(this.includedMetricNames);
+		this.excludedMetricNamePatterns = toPatterns(this.excludedMetricNames);
+		this.includedDimensionPatterns = toDimensionPatterns(this.includedDimensions);
+		this.excludedDimensionPatterns = toDimensionPatterns(this.excludedDimensions);
+	}
+
+	/**
+	 * Key of the rules: filters with the same key select the same metrics.
+	 */
+	String getKey() {
+		return key;
+	}
+
+	/**
+	 * Key of the ListMetrics requests: the catalogs of filters with the same key list the same metrics.
+	 */
+	String getListKey() {
+		StringBuilder listKey = new StringBuilder();
+		for (ListMetricsRequest request : getListRequests()) {
+			listKey.append(request.getNamespace()).append('|').append(request.getMetricName()).append('|').append(request.getDimensions()).append(';');
+		}
+		return listKey.toString();
+	}
+
+	/**
+	 * Get the ListMetrics requests listing the metrics of the filter: one request per included namespace when they are all exact names,
+	 * a single request for all the namespaces otherwise.
+	 */
+	List<ListMetricsRequest> getListRequests() {
+		List<ListMetricsRequest> requests = new ArrayList<ListMetricsRequest>();
+		String metricName = null;
+		if (includedMetricNames.size() == 1 && !isGlob(includedMetricNames.get(0))) {
+			metricName = includedMetricNames.get(0);
+		}
+		DimensionFilter dimensionFilter = null;
+		if (includedDimensions.size() == 1) {
+			String[] dimension = splitDimension(includedDimensions.get(0));
+			if (!isGlob(dimension[0]) && (dimension[1] == null || !isGlob(dimension[1]))) {
+				dimensionFilter = new DimensionFilter().withName(dimension[0]).withValue(dimension[1]);
+			}
+		}
+
+		boolean exactNamespaces = !includedNamespaces.isEmpty();
+		for (String namespace : includedNamespaces) {
+			exactNamespaces &= !isGlob(namespace);
+		}
+		List<String> namespaces = exactNamespaces ? includedNamespaces : Collections.<String>singletonList(null);
+		for (String namespace : namespaces) {
+			ListMetricsRequest request = new ListMetricsRequest()
+					.withNamespace(namespace)
+					.withMetricName(metricName);
+			if (dimensionFilter != null) {
+				request.withDimensions(dimensionFilter);
+			}
+			requests.add(request);
+		}
+		return requests;
+	}
+
+	/**
+	 * Get the metrics accepted by the filter.
+	 */
+	List<Metric> filter(List<Metric> metrics) {
+		if (includedNamespaces.isEmpty() && excludedNamespaces.isEmpty() && includedMetricNames.isEmpty() && excludedMetricNames.isEmpty()
+				&& includedDimensions.isEmpty() && excludedDimensions.isEmpty()) {
+			return metrics;
+		}
+		List<Metric> accepted = new ArrayList<Metric>();
+		for (Metric metric : metrics) {
+			if (accept(metric)) {
+				accepted.add(metric);
+			}
+		}
+		return accepted;
+	}
+
+	boolean accept(Metric metric) {
+		if (!matches(includedNamespacePatterns, metric.getNamespace(), true) || matches(excludedNamespacePatterns, metric.getNamespace(), false)) {
+			return false;
+		}
+		if (!matches(includedMetricNamePatterns, metric.getMetricName(), true) || matches(excludedMetricNamePatterns, metric.getMetricName(), false)) {
+			return false;
+		}
+		return matches(includedDimensionPatterns, metric.getDimensions(), true) && !matches(excludedDimensionPatterns, metric.getDimensions(), false);
+	}
+
+	private static boolean matches(List<Pattern> patterns, String value, boolean matchIfEmpty) {
+		if (patterns.isEmpty()) {
+			return matchIfEmpty;
+		}
+		for (Pattern pattern : patterns) {
+			if (pattern.matcher(value).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean matches(List<Pattern[]> patterns, List<Dimension> dimensions, boolean matchIfEmpty) {
+		if (patterns.isEmpty()) {
+			return matchIfEmpty;
+		}
+		for (Pattern[] pattern : patterns) {
+			for (Dimension dimension : dimensions) {
+				if (pattern[0].matcher(dimension.getName()).matches() && (pattern[1] == null || pattern[1].matcher(dimension.getValue()).matches())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static List<String> split(String rules) {
+		if (rules == null) {
+			return Collections.emptyList();
+		}
+		List<String> values = new ArrayList<String>();
+		for (String rule : rules.split(",")) {
+			if (!rule.trim().isEmpty()) {
+				values.add(rule.trim());
+			}
+		}
+		return Collections.unmodifiableList(values);
+	}
+
+	/**
+	 * @return the name and the value of a name=value dimension rule, the value is null if the rule has no value
+	 */
+	private static String[] splitDimension(String rule) {
+		int separator = rule.indexOf('=');
+		if (separator < 0) {
+			return new String[] {rule, null};
+		}
+		return new String[] {rule.substring(0, separator).trim(), rule.substring(separator + 1).trim()};
+	}
+
+	private static boolean isGlob(String rule) {
+		return rule.indexOf('*') >= 0 || rule.indexOf('?') >= 0;
+	}
+
+	private static Pattern toPattern(String glob) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for (char c : glob.toCharArray()) {
+			if (c == '*' || c == '?') {
+				if (literal.length() > 0) {
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append(c == '*' ? ".*" : ".");
+			} else {
+				literal.append(c);
+			}
+		}
+		if (literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return Pattern.compile(regex.toString(), Pattern.DOTALL);
+	}
+
+	private static List<Pattern> toPatterns(List<String> globs) {
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		for (String glob : globs) {
+			patterns.add(toPattern(glob));
+		}
+		return patterns;
+	}
+
+	private static List<Pattern[]> toDimensionPatterns(List<String> rules) {
+		List<Pattern[]> patterns = new ArrayList<Pattern[]>();
+		for (String rule : rules) {
+			String[] dimension = splitDimension(rule);
+			patterns.add(new Pattern[] {toPattern(dimension[0]), dimension[1] == null ? null : toPattern(dimension[1])});
+		}
+		return patterns;
+	}
+}
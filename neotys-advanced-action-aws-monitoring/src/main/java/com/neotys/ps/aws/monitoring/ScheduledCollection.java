@@ -0,0 +1,200 @@
+package com.neotys.ps.aws.monitoring;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.olingo.odata2.api.exception.ODataException;
+
+import com.neotys.extensions.action.engine.SampleResult;
+import com.neotys.rest.error.NeotysAPIException;
+
+/**
+ * Process wide registry of the background collections, one per endpoint and credentials.
+ * The first engine acquiring an endpoint starts a collector every period, the following ones only report its health.
+ * The following engines must use the same settings: an engine with other filters, statistics or Data Exchange settings
+ * for the same endpoints is rejected rather than silently reporting a collection that does not follow its settings.
+ * Collections are reference counted like the clients: the collector is stopped when the last engine releases it.
+ */
+final class ScheduledCollection {
+
+	private static final Map<String, ScheduledCollection> COLLECTIONS = new HashMap<String, ScheduledCollection>();
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+	/** Maximum random delay added to each run, as a fraction of the period, so that the collections of several endpoints do not start together. */
+	private static final double MAX_JITTER = 0.1;
+
+	private final MetricCollector collector;
+	private final ScheduledExecutorService executor;
+	private final Random random = new Random();
+	private int references;
+	private boolean refreshCatalog;
+
+	//Health of the collection, updated after each run
+	private int runCount;
+	private int failureCount;
+	private int overrunCount;
+	private long lastSuccessTime;
+	private String lastError;
+	private String lastResult;
+
+	private ScheduledCollection(MetricCollector collector, final String name) {
+		this.collector = collector;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Get the collection of the endpoint of the given collector, opening the collector and starting the collection if needed.
+	 * When the collection already runs, the given collector is not used.
+	 * @throws IllegalArgumentException if the collection of the endpoint already runs with other settings than the given collector
+	 */
+	static synchronized ScheduledCollection acquire(MetricCollector collector) throws GeneralSecurityException, IOException, ODataException, URISyntaxException, NeotysAPIException {
+		String key = collector.getEndpointKey();
+		ScheduledCollection collection = COLLECTIONS.get(key);
+		if (collection != null && !collection.collector.getSettingsKey().equals(collector.getSettingsKey())) {
+			throw new IllegalArgumentException("A background collection of the same endpoints and credentials already runs with other settings: "
+					+ "all the actions collecting them in the background must use the same filters, statistics and Data Exchange settings.");
+		}
+		if (collection == null) {
+			collector.open();
+			collection = new ScheduledCollection(collector, "NL-CloudWatchMonitoring-collect-" + COLLECTIONS.size());
+			collection.schedule(0);
+			COLLECTIONS.put(key, collection);
+		}
+		collection.references++;
+		return collection;
+	}
+
+	/**
+	 * Release the collection of the given endpoint key, and stop it if it is not used anymore.
+	 */
+	static void release(String key) {
+		ScheduledCollection collection;
+		synchronized (ScheduledCollection.class) {
+			collection = COLLECTIONS.get(key);
+			if (collection == null) {
+				return;
+			}
+			collection.references--;
+			if (collection.references > 0) {
+				return;
+			}
+			COLLECTIONS.remove(key);
+		}
+		//Wait for the running collection outside of the lock, so that the other endpoints are not blocked
+		collection.stop();
+	}
+
+	/**
+	 * Ask the next collection to list the available metrics again.
+	 */
+	synchronized void refreshCatalog() {
+		refreshCatalog = true;
+	}
+
+	private void schedule(long delay) {
+		long jitter = (long) (random.nextDouble() * MAX_JITTER * collector.getPeriod() * 1000);
+		try {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					runCollection();
+				}
+			}, delay + jitter, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			//The collection has been stopped
+		}
+	}
+
+	private void stop() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		collector.close();
+	}
+
+	private void runCollection() {
+		long start = System.currentTimeMillis();
+		boolean refresh;
+		synchronized (this) {
+			refresh = refreshCatalog;
+			refreshCatalog = false;
+		}
+
+		final StringBuilder resultString = new StringBuilder();
+		String error = null;
+		try {
+			if (!collector.collect(refresh, resultString)) {
+				error = "Partial failure, see the result of the collection below";
+			}
+		} catch (GeneralSecurityException | IOException | URISyntaxException | NeotysAPIException | RuntimeException e) {
+			//Une exception non interceptée arrêterait les collectes suivantes
+			error = e.getClass().getSimpleName() + ": " + e.getMessage();
+			e.printStackTrace();
+		}
+
+		long elapsed = System.currentTimeMillis() - start;
+		long periodMillis = collector.getPeriod() * 1000L;
+		synchronized (this) {
+			runCount++;
+			lastResult = resultString.toString();
+			lastError = error;
+			if (error == null) {
+				lastSuccessTime = System.currentTimeMillis();
+			} else {
+				failureCount++;
+			}
+			if (elapsed > periodMillis) {
+				overrunCount++;
+			}
+		}
+
+		//The next collection is only planned once this one is over, so that they never overlap.
+		//A collection longer than the period is followed by the next one without waiting.
+		schedule(Math.max(0, periodMillis - elapsed));
+	}
+
+	/**
+	 * Report the health of the collection in the result of an execution: the result is in error if the last run failed.
+	 */
+	synchronized void report(SampleResult result) {
+		final StringBuilder health = new StringBuilder();
+		health.append("Background collection every " + collector.getPeriod() + " seconds.\n");
+		health.append(runCount + " collections run, " + failureCount + " failed, " + overrunCount + " longer than the period.\n");
+		if (lastSuccessTime > 0) {
+			health.append(String.format("Last success: %tc\n",new Date(lastSuccessTime)));
+		}
+		if (lastError != null) {
+			health.append("Last error: " + lastError + "\n");
+		}
+		if (lastResult != null) {
+			health.append(lastResult);
+		}
+		result.setResponseContent(health.toString());
+		if (lastError != null) {
+			result.setError(true);
+			result.setStatusCode("NL-CloudWatchMonitoring-ERROR");
+		}
+	}
+}
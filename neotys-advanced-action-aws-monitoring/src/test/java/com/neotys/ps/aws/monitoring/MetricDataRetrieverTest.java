@@ -0,0 +1,224 @@
+package com.neotys.ps.aws.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.services.cloudwatch.AbstractAmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.MetricDataQuery;
+import com.amazonaws.services.cloudwatch.model.MetricDataResult;
+import com.neotys.rest.dataexchange.client.DataExchangeAPIClient;
+import com.neotys.rest.dataexchange.model.Entry;
+
+public class MetricDataRetrieverTest {
+
+	private static final long END_TIME = 3600 * 1000L;
+	private static final int PERIOD = 60;
+
+	/**
+	 * CloudWatch returning one datapoint per minute for each query, the value being the index of the query.
+	 * The results of a request are split in pages of pageSize results.
+	 */
+	private static final class PagingCloudWatch extends AbstractAmazonCloudWatch {
+		private final int pageSize;
+		private final List<GetMetricDataRequest> requests = new ArrayList<GetMetricDataRequest>();
+		private final List<Integer> querySizes = new ArrayList<Integer>();
+		private final List<Long> datapoints = new ArrayList<Long>();
+
+		private PagingCloudWatch(int pageSize, Long... datapoints) {
+			this.pageSize = pageSize;
+			this.datapoints.addAll(Arrays.asList(datapoints));
+		}
+
+		@Override
+		public GetMetricDataResult getMetricData(GetMetricDataRequest request) {
+			requests.add(request);
+			querySizes.add(request.getMetricDataQueries().size());
+			int first = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken());
+			int last = Math.min(first + pageSize, request.getMetricDataQueries().size());
+			List<MetricDataResult> results = new ArrayList<MetricDataResult>();
+			for (int i = first; i < last; i++) {
+				MetricDataQuery query = request.getMetricDataQueries().get(i);
+				List<Date> timestamps = new ArrayList<Date>();
+				List<Double> values = new ArrayList<Double>();
+				for (Long datapoint : datapoints) {
+					timestamps.add(new Date(datapoint));
+					values.add((double) i);
+				}
+				results.add(new MetricDataResult().withId(query.getId()).withTimestamps(timestamps).withValues(values));
+			}
+			return new GetMetricDataResult()
+					.withMetricDataResults(results)
+					.withNextToken(last < request.getMetricDataQueries().size() ? String.valueOf(last) : null);
+		}
+	}
+
+	private static final class CountingDataExchange implements DataExchangeAPIClient {
+		private int entries;
+		private boolean unavailable;
+
+		@Override
+		public void addEntry(Entry entry) throws IOException {
+			addEntries(Collections.singletonList(entry));
+		}
+
+		@Override
+		public void addEntries(List<Entry> entries) throws IOException {
+			if (unavailable) {
+				throw new IOException("Connection refused");
+			}
+			this.entries += entries.size();
+		}
+	}
+
+	private final CountingDataExchange dataExchange = new CountingDataExchange();
+	private final HighWaterMarks highWaterMarks = new HighWaterMarks();
+	private final DataExchangeEntryBuffer entryBuffer = new DataExchangeEntryBuffer(dataExchange, DataExchangeEntryBuffer.DEFAULT_MAX_ENTRIES, DataExchangeEntryBuffer.DEFAULT_MAX_DELAY, highWaterMarks);
+
+	private MetricDataRetriever retriever(PagingCloudWatch client, List<String> statistics) {
+		return new MetricDataRetriever(client, entryBuffer, new Date(0), new Date(END_TIME), PERIOD, statistics, highWaterMarks, new AdaptiveRateLimiter(1000));
+	}
+
+	@Test
+	public void shouldSendAFullRequestOnceItCannotTakeAnotherMetric() throws Exception {
+		PagingCloudWatch client = new PagingCloudWatch(MetricDataRetriever.MAX_QUERIES_PER_REQUEST, 60000L);
+		MetricDataRetriever retriever = retriever(client, Collections.singletonList("Average"));
+
+		for (int i = 0; i <= MetricDataRetriever.MAX_QUERIES_PER_REQUEST; i++) {
+			retriever.add("AWS/EC2", "CPUUtilization", dimensions(i), path(i));
+		}
+		assertEquals(Arrays.asList(MetricDataRetriever.MAX_QUERIES_PER_REQUEST), client.querySizes);
+
+		retriever.flush();
+		assertEquals(Arrays.asList(MetricDataRetriever.MAX_QUERIES_PER_REQUEST, 1), client.querySizes);
+		assertEquals(MetricDataRetriever.MAX_QUERIES_PER_REQUEST + 1, retriever.getDatapointsCount());
+	}
+
+	@Test
+	public void shouldKeepTheStatisticsOfAMetricInTheSameRequest() throws Exception {
+		PagingCloudWatch client = new PagingCloudWatch(MetricDataRetriever.MAX_QUERIES_PER_REQUEST, 60000L);
+		MetricDataRetriever retriever = retriever(client, Arrays.asList("Average", "Maximum", "Minimum"));
+
+		for (int i = 0; i < 200; i++) {
+			retriever.add("AWS/EC2", "CPUUtilization", dimensions(i), path(i));
+		}
+		retriever.flush();
+
+		//166 metrics of 3 statistics fit in a request of 500 queries
+		assertEquals(Arrays.asList(498, 102), client.querySizes);
+		assertEquals(600, retriever.getDatapointsCount());
+	}
+
+	@Test
+	public void shouldMapTheResultsToThePathsOfTheirQueries() throws Exception {
+		PagingCloudWatch client = new PagingCloudWatch(MetricDataRetriever.MAX_QUERIES_PER_REQUEST, 60000L, 120000L);
+		MetricDataRetriever retriever = retriever(client, Arrays.asList("Average", "Maximum"));
+
+		retriever.add("AWS/EC2", "CPUUtilization", dimensions(0), path(0));
+		retriever.add("AWS/EC2", "CPUUtilization", dimensions(1), path(1));
+		retriever.flush();
+		entryBuffer.flush();
+
+		//Each query has its own id, the datapoints of a statistic are sent under the path of the metric followed by the statistic
+		List<MetricDataQuery> queries = client.requests.get(0).getMetricDataQueries();
+		assertEquals(4, queries.size());
+		assertEquals("Maximum", queries.get(3).getMetricStat().getStat());
+		assertEquals("i-1", queries.get(3).getMetricStat().getMetric().getDimensions().get(0).getValue());
+		assertEquals(Long.valueOf(120000), highWaterMarks.get(Arrays.asList("AWS", "EC2", "i-1", "CPUUtilization", "Maximum")));
+		assertEquals(Long.valueOf(120000), highWaterMarks.get(Arrays.asList("AWS", "EC2", "i-0", "CPUUtilization", "Average")));
+		assertNull(highWaterMarks.get(path(0)));
+		assertEquals(8, retriever.getDatapointsCount());
+	}
+
+	@Test
+	public void shouldFollowTheNextToken() throws Exception {
+		PagingCloudWatch client = new PagingCloudWatch(2, 60000L);
+		MetricDataRetriever retriever = retriever(client, Collections.singletonList("Average"));
+
+		for (int i = 0; i < 5; i++) {
+			retriever.add("AWS/EC2", "CPUUtilization", dimensions(i), path(i));
+		}
+		retriever.flush();
+		entryBuffer.flush();
+
+		//The same request is sent again with the token of each page
+		assertEquals(3, retriever.getRequestsCount());
+		assertEquals(5, retriever.getDatapointsCount());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(Long.valueOf(60000), highWaterMarks.get(path(i)));
+		}
+	}
+
+	@Test
+	public void shouldStartTheNextRequestsAtTheHighWaterMarks() throws Exception {
+		PagingCloudWatch client = new PagingCloudWatch(MetricDataRetriever.MAX_QUERIES_PER_REQUEST, 60000L, 120000L);
+		MetricDataRetriever retriever = retriever(client, Collections.singletonList("Average"));
+		retriever.add("AWS/EC2", "CPUUtilization", dimensions(0), path(0));
+		retriever.flush();
+		entryBuffer.flush();
+
+		retriever.add("AWS/EC2", "CPUUtilization", dimensions(0), path(0));
+		retriever.flush();
+		entryBuffer.flush();
+
+		//The datapoints already delivered are not sent again
+		assertEquals(new Date(120001), client.requests.get(1).getStartTime());
+		assertEquals(2, retriever.getDatapointsCount());
+		assertEquals(2, dataExchange.entries);
+	}
+
+	@Test
+	public void shouldOnlyMoveTheMarksOfTheDeliveredDatapoints() throws Exception {
+		PagingCloudWatch client = new PagingCloudWatch(MetricDataRetriever.MAX_QUERIES_PER_REQUEST, 60000L, 120000L);
+		MetricDataRetriever retriever = retriever(client, Collections.singletonList("Average"));
+		retriever.add("AWS/EC2", "CPUUtilization", dimensions(0), path(0));
+		retriever.flush();
+		assertNull(highWaterMarks.get(path(0)));
+
+		dataExchange.unavailable = true;
+		try {
+			entryBuffer.flush();
+			fail();
+		} catch (IOException e) {
+			//The datapoints are retrieved again by the next collection
+			assertNull(highWaterMarks.get(path(0)));
+		}
+
+		dataExchange.unavailable = false;
+		entryBuffer.flush();
+		assertEquals(Long.valueOf(120000), highWaterMarks.get(path(0)));
+	}
+
+	@Test
+	public void shouldLeaveThePeriodInProgressForTheNextCollection() throws Exception {
+		//The last datapoint covers the minute before the end time, the datapoint at the end time covers a minute still in progress
+		PagingCloudWatch client = new PagingCloudWatch(MetricDataRetriever.MAX_QUERIES_PER_REQUEST, END_TIME - 2 * PERIOD * 1000L, END_TIME - PERIOD * 1000L, END_TIME - 1000L);
+		MetricDataRetriever retriever = retriever(client, Collections.singletonList("Average"));
+		retriever.add("AWS/EC2", "CPUUtilization", dimensions(0), path(0));
+		retriever.flush();
+		entryBuffer.flush();
+
+		assertEquals(2, retriever.getDatapointsCount());
+		assertEquals(Long.valueOf(END_TIME - PERIOD * 1000L), highWaterMarks.get(path(0)));
+	}
+
+	private static List<Dimension> dimensions(int index) {
+		return Collections.singletonList(new Dimension().withName("InstanceId").withValue("i-" + index));
+	}
+
+	private static List<String> path(int index) {
+		return Arrays.asList("AWS", "EC2", "i-" + index, "CPUUtilization");
+	}
+}
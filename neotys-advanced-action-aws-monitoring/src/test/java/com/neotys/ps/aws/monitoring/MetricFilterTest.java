@@ -0,0 +1,98 @@
+package com.neotys.ps.aws.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.DimensionFilter;
+import com.amazonaws.services.cloudwatch.model.ListMetricsRequest;
+import com.amazonaws.services.cloudwatch.model.Metric;
+
+public class MetricFilterTest {
+
+	@Test
+	public void shouldAcceptEverythingWithoutRules() {
+		MetricFilter filter = new MetricFilter(null, "", " , ", null, null, null);
+		List<Metric> metrics = Arrays.asList(metric("AWS/EC2", "CPUUtilization"), metric("AWS/RDS", "FreeableMemory"));
+
+		assertEquals(metrics, filter.filter(metrics));
+		assertEquals(1, filter.getListRequests().size());
+		assertNull(filter.getListRequests().get(0).getNamespace());
+	}
+
+	@Test
+	public void shouldGiveExclusionsPrecedenceOverInclusions() {
+		MetricFilter filter = new MetricFilter("AWS/*", "AWS/Lambda", "*Utilization, Freeable*", "DiskUtilization", null, null);
+
+		assertTrue(filter.accept(metric("AWS/EC2", "CPUUtilization")));
+		assertTrue(filter.accept(metric("AWS/RDS", "FreeableMemory")));
+		assertFalse(filter.accept(metric("AWS/Lambda", "CPUUtilization")));
+		assertFalse(filter.accept(metric("AWS/EC2", "DiskUtilization")));
+		assertFalse(filter.accept(metric("Custom/App", "CPUUtilization")));
+		assertFalse(filter.accept(metric("AWS/EC2", "NetworkIn")));
+	}
+
+	@Test
+	public void shouldMatchTheWildcardsOnTheWholeValue() {
+		MetricFilter filter = new MetricFilter("AWS/E?2, *.Service", null, null, null, null, null);
+
+		assertTrue(filter.accept(metric("AWS/EC2", "CPUUtilization")));
+		assertFalse(filter.accept(metric("AWS/EBS2", "VolumeReadOps")));
+		assertFalse(filter.accept(metric("AWS/EC2Spot", "CPUUtilization")));
+		//Only * and ? are wildcards, the other characters are literal
+		assertTrue(filter.accept(metric("My.Service", "Latency")));
+		assertFalse(filter.accept(metric("MyxService", "Latency")));
+	}
+
+	@Test
+	public void shouldMatchTheDimensionsByNameOrByNameAndValue() {
+		MetricFilter filter = new MetricFilter(null, null, null, null, "AutoScalingGroupName, InstanceId=i-0*", "InstanceId=i-0bad*");
+
+		assertTrue(filter.accept(metric("AWS/EC2", "CPUUtilization", "AutoScalingGroupName", "web")));
+		assertTrue(filter.accept(metric("AWS/EC2", "CPUUtilization", "InstanceId", "i-0123")));
+		assertFalse(filter.accept(metric("AWS/EC2", "CPUUtilization", "InstanceId", "i-1123")));
+		assertFalse(filter.accept(metric("AWS/EC2", "CPUUtilization", "ImageId", "ami-1")));
+		assertFalse(filter.accept(metric("AWS/EC2", "CPUUtilization")));
+		//An excluded dimension excludes the metric even if another of its dimensions is included
+		assertFalse(filter.accept(metric("AWS/EC2", "CPUUtilization", "AutoScalingGroupName", "web", "InstanceId", "i-0bad1")));
+	}
+
+	@Test
+	public void shouldSendTheExactRulesInTheListRequests() {
+		MetricFilter filter = new MetricFilter("AWS/EC2, AWS/RDS", null, "CPUUtilization", null, "InstanceId=i-0123", null);
+		List<ListMetricsRequest> requests = filter.getListRequests();
+
+		assertEquals(2, requests.size());
+		assertEquals("AWS/EC2", requests.get(0).getNamespace());
+		assertEquals("AWS/RDS", requests.get(1).getNamespace());
+		assertEquals("CPUUtilization", requests.get(0).getMetricName());
+		assertEquals(Arrays.asList(new DimensionFilter().withName("InstanceId").withValue("i-0123")), requests.get(0).getDimensions());
+	}
+
+	@Test
+	public void shouldApplyTheGlobRulesToTheListedMetrics() {
+		MetricFilter filter = new MetricFilter("AWS/EC2, AWS/R*", null, "CPU*", null, "InstanceId=i-0*", null);
+		List<ListMetricsRequest> requests = filter.getListRequests();
+
+		assertEquals(1, requests.size());
+		assertNull(requests.get(0).getNamespace());
+		assertNull(requests.get(0).getMetricName());
+		assertTrue(requests.get(0).getDimensions().isEmpty());
+		assertFalse(filter.getListKey().equals(new MetricFilter("AWS/EC2", null, null, null, null, null).getListKey()));
+	}
+
+	private static Metric metric(String namespace, String name, String... dimensions) {
+		Metric metric = new Metric().withNamespace(namespace).withMetricName(name);
+		for (int i = 0; i < dimensions.length; i += 2) {
+			metric.withDimensions(new Dimension().withName(dimensions[i]).withValue(dimensions[i + 1]));
+		}
+		return metric;
+	}
+}